@@ -15,6 +15,12 @@
  */
 package org.doodle.mail.autoconfigure.client;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 import org.doodle.broker.client.BrokerClientRSocketRequester;
 import org.doodle.mail.client.*;
 import org.springframework.beans.factory.ObjectProvider;
@@ -22,6 +28,7 @@ import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.web.client.RestTemplateBuilder;
@@ -38,21 +45,50 @@ public class MailClientAutoConfiguration {
     return new MailClientMapper();
   }
 
+  @Bean
+  @ConditionalOnMissingBean
+  public MailClientInFlightLimiter mailClientInFlightLimiter(MailClientProperties properties) {
+    return new MailClientInFlightLimiter(properties.getDeliver().getMaxInFlight());
+  }
+
   @AutoConfiguration
   @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
   public static class ServletConfiguration {
     @Bean
     @ConditionalOnMissingBean
-    public MailClientServlet mailClientServlet(RestTemplateBuilder builder) {
-      return new MailClientServletImpl(builder.build());
+    @ConditionalOnProperty(prefix = MailClientProperties.PREFIX + ".server", name = "url")
+    public MailClientServlet mailClientServlet(
+        RestTemplateBuilder builder, MailClientProperties properties) {
+      MailClientProperties.Sync sync = properties.getSync();
+      builder =
+          builder
+              .setConnectTimeout(Duration.ofMillis(sync.getConnectTimeout()))
+              .setReadTimeout(Duration.ofMillis(sync.getTimeout()));
+      builder = builder.rootUri(properties.getServer().getUrl());
+      return new MailClientServletImpl(builder.build(), properties);
     }
 
     @Bean
-    @ConditionalOnMissingBean
+    @ConditionalOnMissingBean({
+      MailClientServletController.class,
+      MailClientAsyncServletController.class,
+      MailClientDeliverHandler.AsyncServlet.class
+    })
     public MailClientServletController mailClientServletController(
         ObjectProvider<MailClientDeliverHandler.Servlet> provider) {
       return new MailClientServletController(provider.getIfUnique());
     }
+
+    @Bean
+    @ConditionalOnMissingBean({
+      MailClientServletController.class,
+      MailClientAsyncServletController.class
+    })
+    @ConditionalOnBean(MailClientDeliverHandler.AsyncServlet.class)
+    public MailClientAsyncServletController mailClientAsyncServletController(
+        MailClientDeliverHandler.AsyncServlet deliverHandler, MailClientInFlightLimiter limiter) {
+      return new MailClientAsyncServletController(deliverHandler, limiter);
+    }
   }
 
   @AutoConfiguration
@@ -69,8 +105,80 @@ public class MailClientAutoConfiguration {
     @Bean
     @ConditionalOnMissingBean
     public MailClientRSocketController mailClientRSocketController(
-        MailClientMapper mapper, ObjectProvider<MailClientDeliverHandler.RSocket> provider) {
-      return new MailClientRSocketController(mapper, provider.getIfUnique());
+        MailClientMapper mapper,
+        ObjectProvider<MailClientDeliverHandler.AsyncRSocket> asyncProvider,
+        ObjectProvider<MailClientDeliverHandler.RSocket> provider,
+        MailClientInFlightLimiter limiter,
+        MailClientProperties properties) {
+      return new MailClientRSocketController(
+          mapper,
+          asyncProvider.getIfUnique(() -> MailClientDeliverHandler.async(provider.getIfUnique())),
+          limiter,
+          properties);
+    }
+  }
+
+  @AutoConfiguration
+  @ConditionalOnClass(MeterBinder.class)
+  public static class MetricsConfiguration {
+    @Bean
+    public MeterBinder mailClientInFlightLimiterMetrics(MailClientInFlightLimiter limiter) {
+      return (registry) -> {
+        Gauge.builder(
+                "doodle.mail.client.deliver.inflight",
+                limiter,
+                MailClientInFlightLimiter::getInFlight)
+            .register(registry);
+        Gauge.builder(
+                "doodle.mail.client.deliver.waiting",
+                limiter,
+                MailClientInFlightLimiter::getWaiting)
+            .register(registry);
+      };
+    }
+
+    @Bean
+    public MeterBinder mailClientServletMetrics(ObjectProvider<MailClientServlet> provider) {
+      return (registry) -> {
+        if (!(provider.getIfAvailable() instanceof MailClientServletImpl servlet)) {
+          return;
+        }
+        FunctionCounter.builder(
+                "doodle.mail.client.sync.requests", servlet, MailClientServletImpl::getRequestCount)
+            .register(registry);
+        FunctionCounter.builder(
+                "doodle.mail.client.sync.failures", servlet, MailClientServletImpl::getFailureCount)
+            .register(registry);
+        FunctionTimer.builder(
+                "doodle.mail.client.sync.batch",
+                servlet,
+                MailClientServletImpl::getBatchCount,
+                MailClientServletImpl::getBatchTime,
+                TimeUnit.NANOSECONDS)
+            .register(registry);
+      };
+    }
+
+    @Bean
+    public MeterBinder mailClientRSocketMetrics(ObjectProvider<MailClientRSocket> provider) {
+      return (registry) -> {
+        if (!(provider.getIfAvailable() instanceof BrokerMailClientRSocket rsocket)) {
+          return;
+        }
+        Gauge.builder(
+                "doodle.mail.client.sync.pending", rsocket, BrokerMailClientRSocket::getPending)
+            .register(registry);
+        FunctionCounter.builder(
+                "doodle.mail.client.sync.dropped",
+                rsocket,
+                BrokerMailClientRSocket::getDroppedCount)
+            .register(registry);
+        FunctionCounter.builder(
+                "doodle.mail.client.sync.batch.failures",
+                rsocket,
+                BrokerMailClientRSocket::getFailureCount)
+            .register(registry);
+      };
     }
   }
 }
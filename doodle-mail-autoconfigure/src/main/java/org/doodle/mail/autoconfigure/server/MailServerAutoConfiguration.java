@@ -15,7 +15,12 @@
  */
 package org.doodle.mail.autoconfigure.server;
 
-import java.util.concurrent.Executors;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.doodle.broker.autoconfigure.client.BrokerClientAutoConfiguration;
 import org.doodle.broker.client.BrokerClientRSocketRequester;
@@ -30,6 +35,7 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.mongodb.config.EnableMongoAuditing;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 
 @AutoConfiguration(after = BrokerClientAutoConfiguration.class)
@@ -48,86 +54,168 @@ public class MailServerAutoConfiguration {
 
   @Bean
   @ConditionalOnMissingBean
-  public MailServerMapper mailServerMapper() {
-    return new MailServerMapper();
+  public MailServerMapper mailServerMapper(MailServerProperties properties) {
+    return new MailServerMapper(properties.getContent().getProtoCacheSize());
   }
 
   @Bean
   @ConditionalOnMissingBean
-  public MailServerRoleService mailServerRoleService(MailServerRoleSyncRepo roleSyncRepo) {
-    return new MailServerRoleService(roleSyncRepo);
+  public MailServerRoleService mailServerRoleService(
+      MongoTemplate mongoTemplate,
+      ReactiveMongoTemplate reactiveMongoTemplate,
+      MailServerProperties properties) {
+    return new MailServerRoleService(mongoTemplate, reactiveMongoTemplate, properties);
   }
 
   @Bean
   @ConditionalOnMissingBean
-  public MailServerContentService mailServerContentService(MailServerContentRepo contentRepo) {
-    return new MailServerContentService(contentRepo);
+  public MailServerContentService mailServerContentService(
+      MailServerContentRepo contentRepo,
+      ReactiveMongoTemplate reactiveMongoTemplate,
+      MailServerProperties properties) {
+    return new MailServerContentService(contentRepo, reactiveMongoTemplate, properties);
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  public MailServerContentListener mailServerContentListener(
+      MailServerContentService contentService) {
+    return new MailServerContentListener(contentService);
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  public MailServerRateLimiter mailServerRateLimiter(MailServerProperties properties) {
+    return new MailServerRateLimiter(properties);
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  public MailServerCircuitBreaker mailServerCircuitBreaker(MailServerProperties properties) {
+    return new MailServerCircuitBreaker(properties);
   }
 
   @Bean
   @ConditionalOnMissingBean
   public MailServerDeliverService mailServerDeliverService(
-      ObjectProvider<MailServerDeliverHandler> provider) {
+      ObjectProvider<MailServerDeliverHandler> provider,
+      MailServerCircuitBreaker circuitBreaker,
+      MailServerRateLimiter rateLimiter) {
     return new MailServerDeliverService(
         provider
             .orderedStream()
-            .collect(Collectors.toMap(MailServerDeliverHandler::routeMethod, (v) -> v)));
+            .collect(Collectors.toMap(MailServerDeliverHandler::routeMethod, (v) -> v)),
+        circuitBreaker,
+        rateLimiter);
   }
 
   @Bean
   @ConditionalOnMissingBean
   public MailServerPushService mailServerPushService(
+      MongoTemplate mongoTemplate,
       MailServerPushRepo pushRepo,
       MailServerPushScheduleRepo scheduleRepo,
       MailServerContentService contentService,
       MailServerDeliverService deliverService,
       MailServerProperties properties) {
     return new MailServerPushService(
-        pushRepo, scheduleRepo, contentService, deliverService, properties);
+        mongoTemplate, pushRepo, scheduleRepo, contentService, deliverService, properties);
   }
 
   @Bean
   @ConditionalOnMissingBean
-  public MailServerPushListener mailServerPushListener(MailServerPushService pushService) {
-    return new MailServerPushListener(pushService);
+  public MailServerPushDispatcher mailServerPushDispatcher(
+      MailServerPushService pushService, MailServerProperties properties) {
+    MailServerProperties.Push push = properties.getPush();
+    return new MailServerPushDispatcher(
+        pushService,
+        new MailServerDeliverExecutor(
+            "mail-push",
+            push.getWorkerNum(),
+            push.getQueueCapacity(),
+            push.getRejectPolicy(),
+            false,
+            push.getWorkerNum()),
+        properties);
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  public MailServerPushTimer mailServerPushTimer(
+      MongoTemplate mongoTemplate,
+      MailServerPushDispatcher pushDispatcher,
+      MailServerProperties properties) {
+    return new MailServerPushTimer(mongoTemplate, pushDispatcher, properties);
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  public MailServerPushListener mailServerPushListener(
+      MailServerPushDispatcher pushDispatcher, MailServerPushTimer pushTimer) {
+    return new MailServerPushListener(pushDispatcher, pushTimer);
   }
 
   @Bean
   @ConditionalOnMissingBean
   public MailServerPushScheduleListener mailServerPushScheduleListener(
-      MailServerPushService pushService) {
-    return new MailServerPushScheduleListener(pushService);
+      MailServerPushDispatcher pushDispatcher) {
+    return new MailServerPushScheduleListener(pushDispatcher);
   }
 
   @Bean
   @ConditionalOnMissingBean
   public MailServerPushScanner mailServerPushScanner(
-      MailServerPushService pushService, MailServerProperties properties) {
-    return new MailServerPushScanner(pushService, properties);
+      MailServerPushService pushService,
+      MailServerPushDispatcher pushDispatcher,
+      MailServerProperties properties) {
+    return new MailServerPushScanner(pushService, pushDispatcher, properties);
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  public MailServerGroupCatalog mailServerGroupCatalog(
+      ReactiveMongoTemplate reactiveMongoTemplate, MailServerProperties properties) {
+    return new MailServerGroupCatalog(reactiveMongoTemplate, properties);
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  public MailServerDeliverExecutor mailServerDeliverExecutor(MailServerProperties properties) {
+    MailServerProperties.Deliver deliver = properties.getDeliver();
+    return new MailServerDeliverExecutor(
+        "mail-deliver",
+        deliver.getThreadNum(),
+        deliver.getQueueCapacity(),
+        deliver.getRejectPolicy(),
+        deliver.isVirtualThreads(),
+        deliver.getMaxConcurrency());
   }
 
   @Bean
   @ConditionalOnMissingBean
   public MailServerGroupService mailServerGroupService(
       MongoTemplate mongoTemplate,
-      MailServerGroupRepo groupRepo,
+      MailServerGroupCatalog groupCatalog,
       MailServerRoleService roleService,
       MailServerContentService contentService,
       MailServerDeliverService deliverService,
+      MailServerDeliverExecutor deliverExecutor,
       MailServerProperties properties) {
     return new MailServerGroupService(
         mongoTemplate,
-        groupRepo,
+        groupCatalog,
         roleService,
         contentService,
         deliverService,
-        Executors.newFixedThreadPool(properties.getDeliver().getThreadNum()));
+        deliverExecutor,
+        properties);
   }
 
   @Bean
   @ConditionalOnMissingBean
-  public MailServerGroupListener mailServerGroupListener(MailServerGroupService groupSeqService) {
-    return new MailServerGroupListener(groupSeqService);
+  public MailServerGroupListener mailServerGroupListener(
+      MailServerGroupService groupSeqService, MailServerGroupCatalog groupCatalog) {
+    return new MailServerGroupListener(groupSeqService, groupCatalog);
   }
 
   @AutoConfiguration
@@ -136,15 +224,16 @@ public class MailServerAutoConfiguration {
 
     @Bean
     @ConditionalOnMissingBean
-    public MailServerServletDeliverHandler mailServerServletDeliverHandler() {
-      return new MailServerServletDeliverHandler();
+    public MailServerServletDeliverHandler mailServerServletDeliverHandler(
+        ObjectMapper objectMapper, MailServerMapper mapper, MailServerProperties properties) {
+      return new MailServerServletDeliverHandler(objectMapper, mapper, properties);
     }
 
     @Bean
     @ConditionalOnMissingBean
     public MailServerGroupServletController mailServerGroupServletController(
-        MailServerGroupService groupService) {
-      return new MailServerGroupServletController(groupService);
+        MailServerMapper mapper, MailServerGroupService groupService) {
+      return new MailServerGroupServletController(mapper, groupService);
     }
   }
 
@@ -155,15 +244,157 @@ public class MailServerAutoConfiguration {
     @Bean
     @ConditionalOnMissingBean
     public MailServerRSocketDeliverHandler mailServerRSocketDeliverHandler(
-        BrokerClientRSocketRequester requester, MailServerMapper mapper) {
-      return new MailServerRSocketDeliverHandler(requester, mapper);
+        BrokerClientRSocketRequester requester,
+        MailServerMapper mapper,
+        MailServerProperties properties) {
+      return new MailServerRSocketDeliverHandler(requester, mapper, properties);
     }
 
     @Bean
     @ConditionalOnMissingBean
     public MailServerGroupRSocketController mailServerGroupRSocketController(
-        MailServerMapper mapper, MailServerGroupService groupService) {
-      return new MailServerGroupRSocketController(mapper, groupService);
+        MailServerMapper mapper,
+        MailServerGroupService groupService,
+        MailServerProperties properties) {
+      return new MailServerGroupRSocketController(mapper, groupService, properties);
+    }
+  }
+
+  @AutoConfiguration
+  @ConditionalOnClass(MeterBinder.class)
+  public static class MetricsConfiguration {
+    @Bean
+    public MeterBinder mailServerDeliverExecutorMetrics(MailServerDeliverExecutor deliverExecutor) {
+      return (registry) -> {
+        Gauge.builder(
+                "doodle.mail.server.deliver.queue",
+                deliverExecutor,
+                MailServerDeliverExecutor::getQueueSize)
+            .register(registry);
+        for (MailServerPriority priority : MailServerPriority.values()) {
+          Gauge.builder(
+                  "doodle.mail.server.deliver.lane",
+                  deliverExecutor,
+                  (executor) -> executor.getQueueSize(priority))
+              .tag("priority", priority.name())
+              .register(registry);
+        }
+        FunctionCounter.builder(
+                "doodle.mail.server.deliver.rejected",
+                deliverExecutor,
+                MailServerDeliverExecutor::getRejectedCount)
+            .register(registry);
+      };
+    }
+
+    @Bean
+    public MeterBinder mailServerDeliverMetrics(MailServerDeliverService deliverService) {
+      return (registry) -> {
+        Gauge.builder(
+                "doodle.mail.server.deliver.inflight",
+                deliverService,
+                MailServerDeliverService::getInflight)
+            .register(registry);
+        FunctionTimer.builder(
+                "doodle.mail.server.deliver.time",
+                deliverService,
+                MailServerDeliverService::getDeliverCount,
+                MailServerDeliverService::getDeliverTime,
+                TimeUnit.NANOSECONDS)
+            .register(registry);
+        FunctionCounter.builder(
+                "doodle.mail.server.deliver.failures",
+                deliverService,
+                MailServerDeliverService::getFailureCount)
+            .register(registry);
+      };
+    }
+
+    @Bean
+    public MeterBinder mailServerPushDispatcherMetrics(MailServerPushDispatcher pushDispatcher) {
+      return (registry) -> {
+        Gauge.builder(
+                "doodle.mail.server.push.pending",
+                pushDispatcher,
+                MailServerPushDispatcher::getPendingSize)
+            .register(registry);
+        Gauge.builder(
+                "doodle.mail.server.push.active",
+                pushDispatcher,
+                MailServerPushDispatcher::getActiveCount)
+            .register(registry);
+      };
+    }
+
+    @Bean
+    public MeterBinder mailServerRoleMetrics(MailServerRoleService roleService) {
+      return (registry) ->
+          Gauge.builder(
+                  "doodle.mail.server.role.dirty", roleService, MailServerRoleService::getDirtySize)
+              .register(registry);
+    }
+
+    @Bean
+    public MeterBinder mailServerRateLimiterMetrics(MailServerRateLimiter rateLimiter) {
+      return (registry) -> {
+        FunctionCounter.builder(
+                "doodle.mail.server.deliver.throttled",
+                rateLimiter,
+                MailServerRateLimiter::getThrottledCount)
+            .register(registry);
+        Gauge.builder(
+                "doodle.mail.server.deliver.rate.buckets",
+                rateLimiter,
+                MailServerRateLimiter::getBucketSize)
+            .register(registry);
+      };
+    }
+
+    @Bean
+    public MeterBinder mailServerCircuitBreakerMetrics(MailServerCircuitBreaker circuitBreaker) {
+      return (registry) -> {
+        Gauge.builder(
+                "doodle.mail.server.deliver.circuit.open",
+                circuitBreaker,
+                MailServerCircuitBreaker::getOpenCount)
+            .register(registry);
+        Gauge.builder(
+                "doodle.mail.server.deliver.circuits",
+                circuitBreaker,
+                MailServerCircuitBreaker::getCircuitSize)
+            .register(registry);
+      };
+    }
+
+    @Bean
+    public MeterBinder mailServerPushTimerMetrics(MailServerPushTimer pushTimer) {
+      return (registry) ->
+          Gauge.builder(
+                  "doodle.mail.server.push.timer", pushTimer, MailServerPushTimer::getTimerSize)
+              .register(registry);
+    }
+
+    @Bean
+    public MeterBinder mailServerContentCacheMetrics(MailServerContentService contentService) {
+      MailServerLruCache<String, MailServerContentEntity> cache = contentService.getCache();
+      return (registry) -> {
+        Gauge.builder("doodle.mail.server.content.cache.size", cache, MailServerLruCache::size)
+            .register(registry);
+        Gauge.builder(
+                "doodle.mail.server.content.cache.weight", cache, MailServerLruCache::getWeight)
+            .register(registry);
+        FunctionCounter.builder(
+                "doodle.mail.server.content.cache.hit", cache, MailServerLruCache::getHitCount)
+            .register(registry);
+        FunctionCounter.builder(
+                "doodle.mail.server.content.cache.miss", cache, MailServerLruCache::getMissCount)
+            .register(registry);
+        FunctionCounter.builder(
+                "doodle.mail.server.content.cache.eviction",
+                cache,
+                MailServerLruCache::getEvictionCount)
+            .register(registry);
+      };
     }
   }
 }
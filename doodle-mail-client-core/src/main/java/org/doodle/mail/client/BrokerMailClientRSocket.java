@@ -15,8 +15,13 @@
  */
 package org.doodle.mail.client;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import lombok.AccessLevel;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
 import org.doodle.broker.client.BrokerClientRSocketRequester;
 import org.doodle.design.broker.frame.BrokerFrame;
 import org.doodle.design.broker.frame.BrokerFrameMimeTypes;
@@ -24,25 +29,113 @@ import org.doodle.design.broker.frame.BrokerFrameUtils;
 import org.doodle.design.mail.MailRoleSyncOps;
 import org.doodle.design.mail.MailRoleSyncRequest;
 import org.springframework.messaging.rsocket.RSocketRequester;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+@Slf4j
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class BrokerMailClientRSocket implements MailClientRSocket {
+  public static final String SYNC_BATCH_MAPPING = MailRoleSyncOps.RSocket.SYNC_MAPPING + ".batch";
+
+  MailClientBatcher<MailRoleSyncRequest> batcher;
   BrokerClientRSocketRequester requester;
   BrokerFrame frame;
+  MailClientProperties properties;
+  AtomicLong droppedCount = new AtomicLong();
+  AtomicLong failureCount = new AtomicLong();
+
+  // 已缓冲和发送中的请求数, 受 bufferSize 限制
+  @NonFinal int pending;
 
   public BrokerMailClientRSocket(
       BrokerClientRSocketRequester requester, MailClientProperties properties) {
+    MailClientProperties.Sync sync = properties.getSync();
+    this.batcher = new MailClientBatcher<>(sync.getBatchSize(), sync.getBatchWindow(), this::send);
     this.requester = requester;
     this.frame = BrokerFrameUtils.unicast(properties.getServer().getTags());
+    this.properties = properties;
   }
 
   @Override
   public Mono<Void> sync(MailRoleSyncRequest request) {
-    return route(MailRoleSyncOps.RSocket.SYNC_MAPPING).data(request).send();
+    return Mono.defer(() -> offer(request));
+  }
+
+  Mono<Void> offer(MailRoleSyncRequest request) {
+    synchronized (this) {
+      if (pending >= properties.getSync().getBufferSize()) {
+        return overflow(request);
+      }
+      pending++;
+    }
+    if (!batcher.offer(request)) {
+      synchronized (this) {
+        pending--;
+      }
+      return Mono.error(new IllegalStateException("同步客户端已关闭"));
+    }
+    return Mono.empty();
+  }
+
+  Mono<Void> overflow(MailRoleSyncRequest request) {
+    switch (properties.getSync().getOverflowPolicy()) {
+      case DROP -> {
+        droppedCount.incrementAndGet();
+        log.warn("同步请求缓冲已满, 丢弃玩家 {} 的同步请求", request.getRoleId());
+        return Mono.empty();
+      }
+      case ERROR -> {
+        return Mono.error(new IllegalStateException("同步请求缓冲已满"));
+      }
+      default -> {
+        return route(MailRoleSyncOps.RSocket.SYNC_MAPPING).data(request).send();
+      }
+    }
+  }
+
+  void send(List<MailRoleSyncRequest> batch) {
+    route(SYNC_BATCH_MAPPING)
+        .data(Flux.fromIterable(batch), MailRoleSyncRequest.class)
+        .retrieveFlux(Void.class)
+        // 服务端或代理无应答时也要释放缓冲名额
+        .timeout(Duration.ofMillis(properties.getSync().getTimeout()))
+        .doFinally(
+            signal -> {
+              synchronized (this) {
+                pending -= batch.size();
+              }
+            })
+        .subscribe(
+            null,
+            e -> {
+              failureCount.addAndGet(batch.size());
+              log.warn("批量同步邮件失败, 共 {} 个玩家: {}", batch.size(), e.toString());
+            });
+  }
+
+  public synchronized int getPending() {
+    return pending;
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  public void close() {
+    batcher.close();
   }
 
   protected RSocketRequester.RequestSpec route(String route) {
     return requester.route(route).metadata(frame, BrokerFrameMimeTypes.BROKER_FRAME_MIME_TYPE);
   }
+
+  public enum OverflowPolicy {
+    DIRECT,
+    DROP,
+    ERROR
+  }
 }
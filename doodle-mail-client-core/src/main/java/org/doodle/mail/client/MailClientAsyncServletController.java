@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.client;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import org.doodle.design.common.Result;
+import org.doodle.design.mail.MailDeliverOps;
+import org.doodle.design.mail.MailErrorCode;
+import org.doodle.design.mail.model.payload.request.MailDeliverRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+@RestController
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@RequiredArgsConstructor
+public class MailClientAsyncServletController {
+  MailClientDeliverHandler.AsyncServlet deliverHandler;
+  MailClientInFlightLimiter limiter;
+
+  @PostMapping(MailDeliverOps.Servlet.DELIVER_MAPPING)
+  public Mono<Result<MailErrorCode>> deliver(@RequestBody MailDeliverRequest request) {
+    return limiter
+        .limit(Mono.defer(() -> Mono.fromCompletionStage(deliverHandler.apply(request))))
+        .map(Result::ok);
+  }
+
+  @ExceptionHandler(Exception.class)
+  ResponseEntity<Result<Void>> onDeliverException(Exception ignored) {
+    return ResponseEntity.badRequest().body(Result.bad());
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+// 窗口内的请求合并为一批, 达到 batchSize 时立即发送
+// sender 会在定时线程上调用, 不能阻塞
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+class MailClientBatcher<T> {
+  ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+  int batchSize;
+  long batchWindow; // 毫秒
+  Consumer<List<T>> sender;
+
+  @NonFinal List<T> buffer = new ArrayList<>();
+  @NonFinal boolean closed;
+
+  MailClientBatcher(int batchSize, long batchWindow, Consumer<List<T>> sender) {
+    this.batchSize = batchSize;
+    this.batchWindow = batchWindow;
+    this.sender = sender;
+  }
+
+  // 已关闭时返回 false
+  boolean offer(T item) {
+    List<T> batch = null;
+    synchronized (this) {
+      if (closed) {
+        return false;
+      }
+      buffer.add(item);
+      if (buffer.size() >= batchSize) {
+        batch = drain();
+      } else if (buffer.size() == 1) {
+        executorService.schedule(this::flush, batchWindow, TimeUnit.MILLISECONDS);
+      }
+    }
+    if (batch != null) {
+      sender.accept(batch);
+    }
+    return true;
+  }
+
+  void flush() {
+    List<T> batch;
+    synchronized (this) {
+      batch = drain();
+    }
+    if (!batch.isEmpty()) {
+      sender.accept(batch);
+    }
+  }
+
+  private List<T> drain() {
+    List<T> batch = buffer;
+    buffer = new ArrayList<>();
+    return batch;
+  }
+
+  void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    executorService.shutdown();
+    flush();
+  }
+}
@@ -15,6 +15,8 @@
  */
 package org.doodle.mail.client;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
 import org.doodle.design.mail.MailDeliverRequest;
 import org.doodle.design.mail.MailErrorCode;
@@ -27,4 +29,18 @@ public interface MailClientDeliverHandler {
   interface Servlet
       extends Function<
           org.doodle.design.mail.model.payload.request.MailDeliverRequest, MailErrorCode> {}
+
+  // 异步处理, 游戏服可以切换到自己的逻辑线程完成投递, 不阻塞 IO 线程
+  @FunctionalInterface
+  interface AsyncRSocket extends Function<MailDeliverRequest, CompletionStage<MailErrorCode>> {}
+
+  @FunctionalInterface
+  interface AsyncServlet
+      extends Function<
+          org.doodle.design.mail.model.payload.request.MailDeliverRequest,
+          CompletionStage<MailErrorCode>> {}
+
+  static AsyncRSocket async(RSocket deliverHandler) {
+    return request -> CompletableFuture.completedFuture(deliverHandler.apply(request));
+  }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.client;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class MailClientInFlightLimiter {
+  Queue<Sinks.One<Void>> waiters = new ArrayDeque<>();
+  int maxInFlight;
+
+  @NonFinal int inFlight;
+
+  public MailClientInFlightLimiter(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+  }
+
+  public <T> Mono<T> limit(Mono<T> mono) {
+    return Mono.defer(() -> acquire().then(mono.doFinally(signal -> release())));
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  public synchronized int getWaiting() {
+    return waiters.size();
+  }
+
+  // 超出上限时排队等待许可, 而不是阻塞线程
+  Mono<Void> acquire() {
+    synchronized (this) {
+      if (inFlight < maxInFlight) {
+        inFlight++;
+        return Mono.empty();
+      }
+      Sinks.One<Void> waiter = Sinks.one();
+      waiters.offer(waiter);
+      return waiter.asMono().doOnCancel(() -> cancel(waiter));
+    }
+  }
+
+  void release() {
+    Sinks.One<Void> waiter;
+    synchronized (this) {
+      waiter = waiters.poll();
+      if (Objects.isNull(waiter)) {
+        inFlight--;
+        return;
+      }
+    }
+    // 许可直接转交给下一个等待者
+    waiter.tryEmitEmpty();
+  }
+
+  void cancel(Sinks.One<Void> waiter) {
+    synchronized (this) {
+      if (waiters.remove(waiter)) {
+        return;
+      }
+    }
+    // 取消前已经拿到许可, 归还给其他等待者
+    release();
+  }
+}
@@ -29,9 +29,33 @@ public class MailClientProperties {
 
   Server server = new Server();
 
+  Sync sync = new Sync();
+
+  Deliver deliver = new Deliver();
+
   @Data
   @FieldDefaults(level = AccessLevel.PRIVATE)
   public static class Server {
     Map<String, String> tags = Map.of("server-type", "mail");
+    String url;
+  }
+
+  @Data
+  @FieldDefaults(level = AccessLevel.PRIVATE)
+  public static class Sync {
+    int batchSize = 200;
+    long batchWindow = 20; // 毫秒
+    int senderNum = 4;
+    long connectTimeout = 3000; // 毫秒
+    long timeout = 5000; // 毫秒
+    int bufferSize = 10_000;
+    BrokerMailClientRSocket.OverflowPolicy overflowPolicy =
+        BrokerMailClientRSocket.OverflowPolicy.DIRECT;
+  }
+
+  @Data
+  @FieldDefaults(level = AccessLevel.PRIVATE)
+  public static class Deliver {
+    int maxInFlight = 256;
   }
 }
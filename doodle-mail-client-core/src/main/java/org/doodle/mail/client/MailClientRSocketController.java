@@ -25,19 +25,37 @@ import org.doodle.design.mail.MailErrorCode;
 import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Controller
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @RequiredArgsConstructor
 public class MailClientRSocketController implements MailDeliverOps.RSocket {
+  public static final String DELIVER_STREAM_MAPPING =
+      MailDeliverOps.RSocket.DELIVER_MAPPING + ".stream";
+
   MailClientMapper mapper;
-  MailClientDeliverHandler.RSocket deliverHandler;
+  MailClientDeliverHandler.AsyncRSocket deliverHandler;
+  MailClientInFlightLimiter limiter;
+  MailClientProperties properties;
 
   @MessageMapping(MailDeliverOps.RSocket.DELIVER_MAPPING)
   @Override
   public Mono<MailDeliverReply> deliver(MailDeliverRequest request) {
-    return Mono.fromCallable(() -> deliverHandler.apply(request)).map(mapper::toDeliverReply);
+    return limiter
+        .limit(Mono.defer(() -> Mono.fromCompletionStage(deliverHandler.apply(request))))
+        .map(mapper::toDeliverReply);
+  }
+
+  // 并发处理但按请求顺序逐条应答, 服务端依赖该顺序匹配应答
+  @MessageMapping(DELIVER_STREAM_MAPPING)
+  public Flux<MailDeliverReply> deliverStream(Flux<MailDeliverRequest> requests) {
+    return requests.flatMapSequential(
+        request ->
+            deliver(request)
+                .onErrorResume(e -> Mono.just(mapper.toDeliverReply(MailErrorCode.FAILURE))),
+        properties.getDeliver().getMaxInFlight());
   }
 
   @MessageExceptionHandler(Exception.class)
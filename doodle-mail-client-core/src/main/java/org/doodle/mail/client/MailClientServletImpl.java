@@ -15,20 +15,121 @@
  */
 package org.doodle.mail.client;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import lombok.AccessLevel;
-import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
 import org.doodle.design.common.Result;
+import org.doodle.design.mail.MailRoleSyncOps;
 import org.doodle.design.mail.model.payload.request.MailRoleSyncRequest;
 import org.springframework.web.client.RestTemplate;
 
+@Slf4j
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
-@RequiredArgsConstructor
 public class MailClientServletImpl implements MailClientServlet {
+  public static final String SYNC_BATCH_MAPPING = MailRoleSyncOps.Servlet.SYNC_MAPPING + "/batch";
+
+  MailClientBatcher<Pending> batcher;
+  // 批量请求在独立的线程上阻塞发送, 慢请求不会拖住合并窗口的定时任务
+  ExecutorService sendExecutor;
+  AtomicLong requestCount = new AtomicLong();
+  AtomicLong failureCount = new AtomicLong();
+  AtomicLong batchCount = new AtomicLong();
+  AtomicLong batchTime = new AtomicLong(); // 纳秒
   RestTemplate restTemplate;
+  MailClientProperties properties;
+
+  public MailClientServletImpl(RestTemplate restTemplate, MailClientProperties properties) {
+    MailClientProperties.Sync sync = properties.getSync();
+    this.batcher =
+        new MailClientBatcher<>(sync.getBatchSize(), sync.getBatchWindow(), this::dispatch);
+    this.sendExecutor = Executors.newFixedThreadPool(sync.getSenderNum());
+    this.restTemplate = restTemplate;
+    this.properties = properties;
+  }
 
   @Override
   public Result<Void> sync(MailRoleSyncRequest request) {
-    return Result.bad();
+    MailClientProperties.Sync sync = properties.getSync();
+    try {
+      // 等待时间包含合并窗口
+      submit(request).get(sync.getBatchWindow() + sync.getTimeout(), TimeUnit.MILLISECONDS);
+      return Result.ok().body(null);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Result.bad();
+    } catch (Exception e) {
+      return Result.bad();
+    }
+  }
+
+  // 窗口内的同步请求合并为一次批量请求
+  CompletableFuture<Void> submit(MailRoleSyncRequest request) {
+    requestCount.incrementAndGet();
+    Pending pending = new Pending(request, new CompletableFuture<>());
+    if (!batcher.offer(pending)) {
+      failureCount.incrementAndGet();
+      pending.getFuture().completeExceptionally(new IllegalStateException("同步客户端已关闭"));
+    }
+    return pending.getFuture();
+  }
+
+  void dispatch(List<Pending> batch) {
+    try {
+      sendExecutor.execute(() -> send(batch));
+    } catch (RejectedExecutionException e) {
+      failureCount.addAndGet(batch.size());
+      batch.forEach(pending -> pending.getFuture().completeExceptionally(e));
+    }
+  }
+
+  void send(List<Pending> batch) {
+    long start = System.nanoTime();
+    try {
+      restTemplate.postForEntity(
+          SYNC_BATCH_MAPPING, batch.stream().map(Pending::getRequest).toList(), Void.class);
+      batch.forEach(pending -> pending.getFuture().complete(null));
+    } catch (Exception e) {
+      log.warn("批量同步邮件失败, 共 {} 个玩家: {}", batch.size(), e.toString());
+      failureCount.addAndGet(batch.size());
+      batch.forEach(pending -> pending.getFuture().completeExceptionally(e));
+    } finally {
+      batchCount.incrementAndGet();
+      batchTime.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  public long getBatchCount() {
+    return batchCount.get();
+  }
+
+  public long getBatchTime() {
+    return batchTime.get();
+  }
+
+  public void close() {
+    batcher.close();
+    sendExecutor.shutdown();
+  }
+
+  @Value
+  static class Pending {
+    MailRoleSyncRequest request;
+    CompletableFuture<Void> future;
   }
 }
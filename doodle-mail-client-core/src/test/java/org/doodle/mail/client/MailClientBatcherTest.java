@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class MailClientBatcherTest {
+  List<List<String>> batches = new CopyOnWriteArrayList<>();
+  MailClientBatcher<String> batcher = new MailClientBatcher<>(3, 60 * 1000, batches::add);
+
+  @AfterEach
+  void tearDown() {
+    batcher.close();
+  }
+
+  @Test
+  void shouldSendFullBatchImmediately() {
+    batcher.offer("a");
+    batcher.offer("b");
+    assertThat(batches).isEmpty();
+
+    batcher.offer("c");
+    batcher.offer("d");
+
+    assertThat(batches).containsExactly(List.of("a", "b", "c"));
+  }
+
+  @Test
+  void shouldSendPartialBatchAfterWindow() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(1);
+    MailClientBatcher<String> windowed =
+        new MailClientBatcher<>(
+            100,
+            20,
+            (batch) -> {
+              batches.add(batch);
+              latch.countDown();
+            });
+    windowed.offer("a");
+    windowed.offer("b");
+
+    assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(batches).containsExactly(List.of("a", "b"));
+    windowed.close();
+  }
+
+  @Test
+  void shouldFlushOnCloseAndRejectAfterwards() {
+    batcher.offer("a");
+
+    batcher.close();
+
+    assertThat(batches).containsExactly(List.of("a"));
+    assertThat(batcher.offer("b")).isFalse();
+    assertThat(batches).hasSize(1);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class MailClientInFlightLimiterTest {
+  MailClientInFlightLimiter limiter = new MailClientInFlightLimiter(1);
+
+  @Test
+  void shouldQueueBeyondMaxInFlight() {
+    Sinks.One<String> first = Sinks.one();
+    AtomicBoolean second = new AtomicBoolean();
+    limiter.limit(first.asMono()).subscribe();
+    limiter.limit(Mono.fromRunnable(() -> second.set(true))).subscribe();
+
+    assertThat(limiter.getInFlight()).isEqualTo(1);
+    assertThat(limiter.getWaiting()).isEqualTo(1);
+    assertThat(second).isFalse();
+
+    first.tryEmitValue("done");
+
+    assertThat(second).isTrue();
+    assertThat(limiter.getInFlight()).isZero();
+    assertThat(limiter.getWaiting()).isZero();
+  }
+
+  @Test
+  void shouldNotAcquireUntilSubscribed() {
+    Mono<Object> limited = limiter.limit(Mono.never());
+
+    assertThat(limiter.getInFlight()).isZero();
+    Disposable disposable = limited.subscribe();
+    assertThat(limiter.getInFlight()).isEqualTo(1);
+
+    disposable.dispose();
+    assertThat(limiter.getInFlight()).isZero();
+  }
+
+  @Test
+  void shouldDropCancelledWaiter() {
+    Sinks.One<String> first = Sinks.one();
+    AtomicBoolean third = new AtomicBoolean();
+    limiter.limit(first.asMono()).subscribe();
+    Disposable second = limiter.limit(Mono.never()).subscribe();
+    limiter.limit(Mono.fromRunnable(() -> third.set(true))).subscribe();
+
+    second.dispose();
+    assertThat(limiter.getWaiting()).isEqualTo(1);
+
+    first.tryEmitValue("done");
+
+    assertThat(third).isTrue();
+    assertThat(limiter.getInFlight()).isZero();
+  }
+
+  @Test
+  void shouldReleasePermitOnError() {
+    limiter.limit(Mono.error(new IllegalStateException())).subscribe(v -> {}, e -> {});
+
+    assertThat(limiter.getInFlight()).isZero();
+    assertThat(limiter.limit(Mono.just("ok")).block()).isEqualTo("ok");
+  }
+}
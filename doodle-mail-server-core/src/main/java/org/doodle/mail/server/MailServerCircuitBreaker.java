@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class MailServerCircuitBreaker {
+  ConcurrentMap<Object, Circuit> circuits = new ConcurrentHashMap<>();
+  AtomicLong sweepTime;
+  LongSupplier clock; // 毫秒
+  MailServerProperties properties;
+
+  public MailServerCircuitBreaker(MailServerProperties properties) {
+    this(properties, System::currentTimeMillis);
+  }
+
+  MailServerCircuitBreaker(MailServerProperties properties, LongSupplier clock) {
+    this.clock = clock;
+    this.properties = properties;
+    this.sweepTime = new AtomicLong(clock.getAsLong());
+  }
+
+  // 返回需要等待的毫秒数, 0 表示允许投递
+  public long tryAcquire(Object routeKey) {
+    long now = clock.getAsLong();
+    long retryAfter =
+        circuits.computeIfAbsent(routeKey, (k) -> new Circuit(now)).tryAcquire(routeKey, now);
+    sweep(now);
+    return retryAfter;
+  }
+
+  // 长时间未使用且没有失败记录的熔断器与新建的等价, 移除后再次使用时重建即可
+  void sweep(long now) {
+    long idleTime = properties.getDeliver().getBreakerIdleTime();
+    long last = sweepTime.get();
+    if (now - last < idleTime || !sweepTime.compareAndSet(last, now)) {
+      return;
+    }
+    circuits.values().removeIf(circuit -> circuit.isIdle(now, idleTime));
+  }
+
+  public void onSuccess(Object routeKey) {
+    Circuit circuit = circuits.get(routeKey);
+    if (circuit != null) {
+      circuit.onSuccess(routeKey, clock.getAsLong());
+    }
+  }
+
+  public void onFailure(Object routeKey) {
+    long now = clock.getAsLong();
+    circuits.computeIfAbsent(routeKey, (k) -> new Circuit(now)).onFailure(routeKey, now);
+  }
+
+  // 请求被调用方取消时既不算成功也不算失败, 只归还探测许可
+  public void release(Object routeKey) {
+    Circuit circuit = circuits.get(routeKey);
+    if (circuit != null) {
+      circuit.release();
+    }
+  }
+
+  public long getOpenCount() {
+    return circuits.values().stream().filter(Circuit::isOpen).count();
+  }
+
+  public int getCircuitSize() {
+    return circuits.size();
+  }
+
+  enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  @FieldDefaults(level = AccessLevel.PRIVATE)
+  class Circuit {
+    State state = State.CLOSED;
+    int failures;
+    long openTime;
+    boolean probing;
+    long lastTime;
+
+    Circuit(long now) {
+      this.lastTime = now;
+    }
+
+    synchronized long tryAcquire(Object routeKey, long now) {
+      lastTime = now;
+      long breakTime = properties.getDeliver().getBreakerOpenTime();
+      switch (state) {
+        case OPEN -> {
+          if (now - openTime < breakTime) {
+            return breakTime - (now - openTime);
+          }
+          // 放行一次探测请求
+          log.info("投递路由尝试恢复: {}", routeKey);
+          state = State.HALF_OPEN;
+          probing = true;
+          return 0;
+        }
+        case HALF_OPEN -> {
+          if (probing) {
+            return breakTime;
+          }
+          probing = true;
+          return 0;
+        }
+        default -> {
+          return 0;
+        }
+      }
+    }
+
+    synchronized void onSuccess(Object routeKey, long now) {
+      lastTime = now;
+      if (state != State.CLOSED) {
+        log.info("投递路由已恢复: {}", routeKey);
+      }
+      state = State.CLOSED;
+      failures = 0;
+      probing = false;
+    }
+
+    synchronized void onFailure(Object routeKey, long now) {
+      lastTime = now;
+      failures++;
+      if (state == State.HALF_OPEN
+          || (state == State.CLOSED
+              && failures >= properties.getDeliver().getBreakerFailureThreshold())) {
+        log.warn("投递路由熔断: {}, 连续失败 {} 次", routeKey, failures);
+        state = State.OPEN;
+        openTime = now;
+      }
+      probing = false;
+    }
+
+    synchronized void release() {
+      probing = false;
+    }
+
+    synchronized boolean isOpen() {
+      return state != State.CLOSED;
+    }
+
+    synchronized boolean isIdle(long now, long idleTime) {
+      return state == State.CLOSED && failures == 0 && now - lastTime >= idleTime;
+    }
+  }
+}
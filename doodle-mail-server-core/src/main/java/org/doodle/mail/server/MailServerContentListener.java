@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+
+// 只能感知本节点的写入, 其他节点的缓存依赖 content.cacheExpire 过期
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@RequiredArgsConstructor
+public class MailServerContentListener extends AbstractMongoEventListener<MailServerContentEntity> {
+  MailServerContentService contentService;
+
+  @Override
+  public void onAfterSave(AfterSaveEvent<MailServerContentEntity> event) {
+    contentService.invalidate(event.getSource().getContentId());
+  }
+
+  @Override
+  public void onAfterDelete(AfterDeleteEvent<MailServerContentEntity> event) {
+    Document document = event.getSource();
+    if (document.get("_id") instanceof String contentId) {
+      contentService.invalidate(contentId);
+    } else {
+      contentService.invalidateAll();
+    }
+  }
+}
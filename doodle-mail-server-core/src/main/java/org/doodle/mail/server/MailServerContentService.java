@@ -15,22 +15,118 @@
  */
 package org.doodle.mail.server;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import lombok.AccessLevel;
-import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Mono;
 
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
-@RequiredArgsConstructor
 public class MailServerContentService {
+  MailServerLruCache<String, MailServerContentEntity> contents;
   MailServerContentRepo contentRepo;
+  ReactiveMongoTemplate reactiveMongoTemplate;
 
-  public List<MailServerContentEntity> findAllById(Iterable<String> ids) {
-    return contentRepo.findAllById(ids);
+  public MailServerContentService(
+      MailServerContentRepo contentRepo,
+      ReactiveMongoTemplate reactiveMongoTemplate,
+      MailServerProperties properties) {
+    MailServerProperties.Content content = properties.getContent();
+    this.contents =
+        new MailServerLruCache<>(
+            content.getCacheMaxWeight(),
+            MailServerContentService::weigh,
+            content.getCacheExpire());
+    this.contentRepo = contentRepo;
+    this.reactiveMongoTemplate = reactiveMongoTemplate;
+  }
+
+  public List<MailServerContentEntity> findAllById(Collection<String> ids) {
+    List<MailServerContentEntity> contentEntities = new ArrayList<>();
+    List<String> missingIds = new ArrayList<>();
+    // 多个推送可能共用同一内容, 每个内容只返回一次
+    for (String contentId : new LinkedHashSet<>(ids)) {
+      MailServerContentEntity contentEntity = contents.get(contentId);
+      if (Objects.isNull(contentEntity)) {
+        missingIds.add(contentId);
+      } else {
+        contentEntities.add(contentEntity);
+      }
+    }
+    if (!missingIds.isEmpty()) {
+      for (MailServerContentEntity contentEntity : contentRepo.findAllById(missingIds)) {
+        contents.put(contentEntity.getContentId(), contentEntity);
+        contentEntities.add(contentEntity);
+      }
+    }
+    return contentEntities;
+  }
+
+  public Mono<List<MailServerContentEntity>> findAllByIdMono(Collection<String> ids) {
+    List<MailServerContentEntity> contentEntities = new ArrayList<>();
+    List<String> missingIds = new ArrayList<>();
+    for (String contentId : new LinkedHashSet<>(ids)) {
+      MailServerContentEntity contentEntity = contents.get(contentId);
+      if (Objects.isNull(contentEntity)) {
+        missingIds.add(contentId);
+      } else {
+        contentEntities.add(contentEntity);
+      }
+    }
+    if (missingIds.isEmpty()) {
+      return Mono.just(contentEntities);
+    }
+    return reactiveMongoTemplate
+        .find(Query.query(Criteria.where("_id").in(missingIds)), MailServerContentEntity.class)
+        .doOnNext(contentEntity -> contents.put(contentEntity.getContentId(), contentEntity))
+        .collectList()
+        .map(
+            loaded -> {
+              contentEntities.addAll(loaded);
+              return contentEntities;
+            });
   }
 
   public Optional<MailServerContentEntity> findById(String contentId) {
-    return contentRepo.findById(contentId);
+    MailServerContentEntity contentEntity = contents.get(contentId);
+    if (Objects.nonNull(contentEntity)) {
+      return Optional.of(contentEntity);
+    }
+    Optional<MailServerContentEntity> optional = contentRepo.findById(contentId);
+    optional.ifPresent(loaded -> contents.put(contentId, loaded));
+    return optional;
+  }
+
+  public void invalidate(String contentId) {
+    contents.invalidate(contentId);
+  }
+
+  public void invalidateAll() {
+    contents.invalidateAll();
+  }
+
+  public MailServerLruCache<String, MailServerContentEntity> getCache() {
+    return contents;
+  }
+
+  static long weigh(MailServerContentEntity contentEntity) {
+    // 按字符串长度粗略估算占用字节
+    return 64
+        + 2L
+            * (length(contentEntity.getContentId())
+                + length(contentEntity.getTitle())
+                + length(contentEntity.getContent())
+                + length(contentEntity.getAttachment()));
+  }
+
+  private static int length(String value) {
+    return Objects.isNull(value) ? 0 : value.length();
   }
 }
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class MailServerDeliverExecutor implements Executor {
+  String name;
+  MailServerLaneQueue queue;
+  RejectPolicy rejectPolicy;
+  Semaphore permits;
+  AtomicInteger activeCount = new AtomicInteger();
+  AtomicLong rejectedCount = new AtomicLong();
+  List<Thread> workers = new ArrayList<>();
+
+  @NonFinal volatile boolean running = true;
+
+  public MailServerDeliverExecutor(
+      String name,
+      int threadNum,
+      int queueCapacity,
+      RejectPolicy rejectPolicy,
+      boolean virtualThreads,
+      int maxConcurrency) {
+    this.name = name;
+    this.queue = new MailServerLaneQueue(queueCapacity, this::displace);
+    this.rejectPolicy = rejectPolicy;
+    ThreadFactory virtualThreadFactory = virtualThreads ? virtualThreadFactory(name) : null;
+    if (virtualThreads && Objects.isNull(virtualThreadFactory)) {
+      log.warn("当前 JVM 不支持虚拟线程, {} 使用 {} 个平台线程", name, threadNum);
+    }
+    // 许可限制同时执行的任务数, 响应式投递的许可持有到投递结束
+    this.permits = new Semaphore(maxConcurrency);
+    if (Objects.nonNull(virtualThreadFactory)) {
+      startWorker(name + "-dispatcher", () -> dispatch(virtualThreadFactory));
+    } else {
+      for (int i = 0; i < threadNum; i++) {
+        startWorker(name + "-" + i, this::work);
+      }
+    }
+  }
+
+  public <T> Mono<T> submit(MailServerPriority priority, Mono<T> mono) {
+    return Mono.create(
+        sink -> {
+          try {
+            execute(priority, new AsyncTask<>(mono, sink));
+          } catch (RejectedExecutionException e) {
+            sink.error(e);
+          }
+        });
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    execute(MailServerPriority.NORMAL, task);
+  }
+
+  public void execute(MailServerPriority priority, Runnable task) {
+    if (!running) {
+      throw new RejectedExecutionException(name + " 已关闭");
+    }
+    if (queue.offer(priority, task)) {
+      return;
+    }
+    rejectedCount.incrementAndGet();
+    // 响应式链路的非阻塞线程上既不能等待入队, 也不能直接执行任务
+    RejectPolicy policy = Schedulers.isInNonBlockingThread() ? RejectPolicy.ABORT : rejectPolicy;
+    switch (policy) {
+      case CALLER_RUNS -> run(task, () -> {});
+      case BLOCK -> {
+        try {
+          queue.put(priority, task);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RejectedExecutionException(name + " 等待入队被中断", e);
+        }
+      }
+      default -> throw new RejectedExecutionException(name + " 队列已满");
+    }
+  }
+
+  // 高优先级任务挤出的低优先级任务按拒绝处理, 响应式投递由调用方在下次同步或扫描时重试
+  void displace(Runnable task) {
+    rejectedCount.incrementAndGet();
+    if (task instanceof AsyncTask<?> asyncTask) {
+      asyncTask.sink.error(new RejectedExecutionException(name + " 队列已满, 任务被挤出"));
+    } else {
+      log.warn("{} 队列已满, 丢弃被挤出的任务", name);
+    }
+  }
+
+  public int getQueueSize() {
+    return queue.size();
+  }
+
+  public int getQueueSize(MailServerPriority priority) {
+    return queue.size(priority);
+  }
+
+  public int getRemainingCapacity() {
+    return queue.remainingCapacity();
+  }
+
+  public int getActiveCount() {
+    return activeCount.get();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  public void shutdown() {
+    running = false;
+    workers.forEach(Thread::interrupt);
+    List<Runnable> dropped = queue.drain();
+    if (!dropped.isEmpty()) {
+      log.warn("{} 关闭时丢弃 {} 个未执行任务", name, dropped.size());
+    }
+    for (Runnable task : dropped) {
+      if (task instanceof AsyncTask<?> asyncTask) {
+        asyncTask.sink.error(new RejectedExecutionException(name + " 已关闭"));
+      }
+    }
+  }
+
+  void startWorker(String threadName, Runnable loop) {
+    Thread worker = new Thread(loop, threadName);
+    worker.setDaemon(true);
+    worker.start();
+    workers.add(worker);
+  }
+
+  void work() {
+    while (running) {
+      Runnable task = acquire();
+      if (Objects.isNull(task)) {
+        return;
+      }
+      run(task, permits::release);
+    }
+  }
+
+  void dispatch(ThreadFactory threadFactory) {
+    while (running) {
+      Runnable task = acquire();
+      if (Objects.isNull(task)) {
+        return;
+      }
+      threadFactory.newThread(() -> run(task, permits::release)).start();
+    }
+  }
+
+  // 先拿到许可再取任务, 被中断时返回 null
+  Runnable acquire() {
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      return null;
+    }
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      permits.release();
+      return null;
+    }
+  }
+
+  void run(Runnable task, Runnable release) {
+    if (task instanceof AsyncTask<?> asyncTask) {
+      asyncTask.start(release);
+      return;
+    }
+    activeCount.incrementAndGet();
+    try {
+      task.run();
+    } catch (Throwable t) {
+      log.error("{} 执行任务失败", name, t);
+    } finally {
+      activeCount.decrementAndGet();
+      release.run();
+    }
+  }
+
+  static ThreadFactory virtualThreadFactory(String name) {
+    // 编译目标为 JDK 17, 通过反射使用 JDK 21 的 Thread.ofVirtual()
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder =
+          builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  // 订阅响应式投递后立即返回, 投递结束时才释放许可
+  @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+  class AsyncTask<T> implements Runnable {
+    Disposable.Swap disposable = Disposables.swap();
+    Mono<T> mono;
+    MonoSink<T> sink;
+
+    AsyncTask(Mono<T> mono, MonoSink<T> sink) {
+      this.mono = mono;
+      this.sink = sink;
+      sink.onCancel(disposable);
+    }
+
+    @Override
+    public void run() {
+      start(() -> {});
+    }
+
+    void start(Runnable release) {
+      if (disposable.isDisposed()) {
+        release.run();
+        return;
+      }
+      activeCount.incrementAndGet();
+      disposable.update(
+          mono.doFinally(
+                  signal -> {
+                    activeCount.decrementAndGet();
+                    release.run();
+                  })
+              .subscribe(sink::success, sink::error, sink::success));
+    }
+  }
+
+  public enum RejectPolicy {
+    ABORT,
+    CALLER_RUNS,
+    BLOCK
+  }
+}
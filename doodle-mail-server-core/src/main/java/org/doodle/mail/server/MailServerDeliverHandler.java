@@ -18,12 +18,17 @@ package org.doodle.mail.server;
 import java.util.List;
 import org.doodle.design.mail.MailDeliverRoute;
 import org.doodle.design.mail.MailErrorCode;
+import reactor.core.publisher.Mono;
 
 public interface MailServerDeliverHandler {
   MailDeliverRoute.RouteMethodCase routeMethod();
 
-  default MailErrorCode deliver(
+  default Object routeKey(Object route) {
+    return route;
+  }
+
+  default Mono<MailErrorCode> deliver(
       String roleId, Object route, List<MailServerContentEntity> contentEntities) {
-    return MailErrorCode.FAILURE;
+    return Mono.just(MailErrorCode.FAILURE);
   }
 }
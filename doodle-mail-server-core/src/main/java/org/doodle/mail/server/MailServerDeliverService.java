@@ -18,23 +18,95 @@ package org.doodle.mail.server;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import org.doodle.design.mail.MailDeliverRoute;
 import org.doodle.design.mail.MailErrorCode;
+import reactor.core.publisher.Mono;
 
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @RequiredArgsConstructor
 public class MailServerDeliverService {
   Map<MailDeliverRoute.RouteMethodCase, MailServerDeliverHandler> deliverHandlers;
+  MailServerCircuitBreaker circuitBreaker;
+  MailServerRateLimiter rateLimiter;
+  AtomicInteger inflight = new AtomicInteger();
+  AtomicLong deliverCount = new AtomicLong();
+  AtomicLong deliverTime = new AtomicLong(); // 纳秒
+  AtomicLong failureCount = new AtomicLong();
 
-  public MailErrorCode deliver(
+  public Mono<MailErrorCode> deliver(
       String roleId, Object route, List<MailServerContentEntity> contentEntities) {
     MailServerDeliverHandler deliverHandler = findDeliverHandler(route);
-    return Objects.nonNull(deliverHandler)
-        ? deliverHandler.deliver(roleId, route, contentEntities)
-        : MailErrorCode.FAILURE;
+    if (Objects.isNull(deliverHandler)) {
+      return Mono.just(MailErrorCode.FAILURE);
+    }
+    Object routeKey = deliverHandler.routeKey(route);
+    if (Objects.isNull(routeKey)) {
+      return Mono.just(MailErrorCode.FAILURE);
+    }
+    // 限流等待不计入投递耗时, 超出最长等待时抛出限流异常由调用方稍后重试
+    return rateLimiter
+        .acquire(routeKey)
+        .then(Mono.defer(() -> call(deliverHandler, routeKey, roleId, route, contentEntities)));
+  }
+
+  Mono<MailErrorCode> call(
+      MailServerDeliverHandler deliverHandler,
+      Object routeKey,
+      String roleId,
+      Object route,
+      List<MailServerContentEntity> contentEntities) {
+    long retryAfter = circuitBreaker.tryAcquire(routeKey);
+    if (retryAfter > 0) {
+      return Mono.error(new MailServerCircuitOpenException(routeKey, retryAfter));
+    }
+    // 只有请求异常或无响应计入熔断, 游戏服返回的失败码说明路由可用
+    return Mono.defer(() -> measure(deliverHandler.deliver(roleId, route, contentEntities)))
+        .doOnSuccess(
+            errorCode -> {
+              if (Objects.nonNull(errorCode)) {
+                circuitBreaker.onSuccess(routeKey);
+              } else {
+                circuitBreaker.onFailure(routeKey);
+              }
+            })
+        .doOnError(e -> circuitBreaker.onFailure(routeKey))
+        .doOnCancel(() -> circuitBreaker.release(routeKey))
+        .onErrorReturn(MailErrorCode.FAILURE)
+        .defaultIfEmpty(MailErrorCode.FAILURE);
+  }
+
+  Mono<MailErrorCode> measure(Mono<MailErrorCode> deliver) {
+    long start = System.nanoTime();
+    inflight.incrementAndGet();
+    return deliver
+        .doOnError(e -> failureCount.incrementAndGet())
+        .doFinally(
+            signal -> {
+              inflight.decrementAndGet();
+              deliverCount.incrementAndGet();
+              deliverTime.addAndGet(System.nanoTime() - start);
+            });
+  }
+
+  public int getInflight() {
+    return inflight.get();
+  }
+
+  public long getDeliverCount() {
+    return deliverCount.get();
+  }
+
+  public long getDeliverTime() {
+    return deliverTime.get();
+  }
+
+  public long getFailureCount() {
+    return failureCount.get();
   }
 
   MailServerDeliverHandler findDeliverHandler(Object route) {
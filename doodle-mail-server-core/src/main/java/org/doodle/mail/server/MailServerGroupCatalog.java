@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import com.mongodb.client.result.UpdateResult;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.doodle.design.mail.model.info.MailLifecycleInfo;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ConvertOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Mono;
+
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@RequiredArgsConstructor
+public class MailServerGroupCatalog implements SmartLifecycle {
+  ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+  NavigableMap<Long, Item> groups = new ConcurrentSkipListMap<>();
+  ReactiveMongoTemplate reactiveMongoTemplate;
+  MailServerProperties properties;
+
+  @NonFinal volatile boolean loaded;
+  // 小于等于该值的邮件均已进入缓存, 同步只读取这一段, 避免玩家进度越过尚未加载的邮件
+  @NonFinal volatile long syncedId;
+
+  public Mono<List<Item>> findAllToSync(long syncId, long roleCreateTime) {
+    long now = System.currentTimeMillis();
+    if (!loaded) {
+      // 回填完成前旧数据没有 createTime, 退回到 createdAt 判断
+      Criteria created =
+          new Criteria()
+              .orOperator(
+                  Criteria.where("createTime").gt(roleCreateTime),
+                  Criteria.where("createTime")
+                      .not()
+                      .gt(0)
+                      .and("createdAt")
+                      .gt(new Date(roleCreateTime)));
+      Criteria alive =
+          new Criteria()
+              .orOperator(
+                  Criteria.where("expireTime").not().gt(0), Criteria.where("expireTime").gt(now));
+      Query query =
+          Query.query(Criteria.where("_id").gt(syncId).andOperator(created, alive))
+              .with(Sort.by("_id"));
+      query.fields().include("createTime", "createdAt", "expireTime", "contentId", "priority");
+      return reactiveMongoTemplate
+          .find(query, MailServerGroupEntity.class)
+          .map(Item::new)
+          .collectList();
+    }
+    List<Item> items = new ArrayList<>();
+    if (syncId >= syncedId) {
+      return Mono.just(items);
+    }
+    for (Item item : groups.subMap(syncId, false, syncedId, true).values()) {
+      if (item.getCreateTime() > roleCreateTime && !item.isExpired(now)) {
+        items.add(item);
+      }
+    }
+    return Mono.just(items);
+  }
+
+  public void put(MailServerGroupEntity groupEntity) {
+    groups.put(groupEntity.getGroupId(), new Item(groupEntity));
+    if (loaded) {
+      advance();
+    }
+  }
+
+  public void remove(long groupId) {
+    groups.remove(groupId);
+  }
+
+  public void backfill() {
+    // 旧数据没有 createTime, 按 createdAt 回填为毫秒时间戳
+    long count =
+        reactiveMongoTemplate
+            .updateMulti(
+                Query.query(
+                    Criteria.where("createTime").not().gt(0).and("createdAt").exists(true)),
+                AggregationUpdate.update()
+                    .set("createTime")
+                    .toValue(ConvertOperators.valueOf("createdAt").convertToLong()),
+                MailServerGroupEntity.class)
+            .map(UpdateResult::getModifiedCount)
+            .blockOptional()
+            .orElse(0L);
+    if (count > 0) {
+      log.info("回填全服邮件创建时间, 数量: {}", count);
+    }
+  }
+
+  public void load() {
+    Query query = Query.query(Criteria.where("_id").gt(syncedId)).with(Sort.by("_id"));
+    find(query).forEach(item -> groups.put(item.getGroupId(), item));
+    advance();
+  }
+
+  public synchronized void reload() {
+    Map<Long, Item> snapshot =
+        find(new Query()).stream().collect(Collectors.toMap(Item::getGroupId, (v) -> v));
+    if (!snapshot.isEmpty()) {
+      // 快照之后新增的邮件由监听器维护, 不能被误删
+      long maxGroupId = snapshot.keySet().stream().mapToLong(Long::longValue).max().orElse(0);
+      groups.headMap(maxGroupId, true).keySet().retainAll(snapshot.keySet());
+    } else {
+      groups.headMap(syncedId, true).clear();
+    }
+    groups.putAll(snapshot);
+    advance();
+    loaded = true;
+  }
+
+  List<Item> find(Query query) {
+    query
+        .fields()
+        .include("createTime", "createdAt", "expireTime", "contentId", "lifecycle", "priority");
+    return reactiveMongoTemplate
+        .find(query, MailServerGroupEntity.class)
+        .map(Item::new)
+        .collectList()
+        .blockOptional()
+        .orElse(List.of());
+  }
+
+  synchronized void advance() {
+    long now = System.currentTimeMillis();
+    long gapTimeout = properties.getGroup().getGapTimeout();
+    long id = syncedId;
+    for (Map.Entry<Long, Item> entry = groups.higherEntry(id);
+        Objects.nonNull(entry);
+        entry = groups.higherEntry(id)) {
+      // 出现空缺说明更小的邮件可能还未提交, 或者编号段仍在其他节点手中未分配完.
+      // 编号段的有效期小于 gapTimeout, 超时后空缺不会再被填上, 视为已删除或写入失败
+      if (entry.getKey() != id + 1 && now - entry.getValue().getCreateTime() < gapTimeout) {
+        break;
+      }
+      id = entry.getKey();
+    }
+    syncedId = id;
+  }
+
+  @Override
+  public void start() {
+    MailServerProperties.Group group = properties.getGroup();
+    log.info(
+        "启动全服邮件缓存同步任务, 增量间隔: {} 秒, 全量间隔: {} 秒",
+        group.getLoadInterval(),
+        group.getReloadInterval());
+    executorService.execute(
+        () -> {
+          try {
+            backfill();
+          } catch (Exception e) {
+            log.error("回填全服邮件创建时间失败", e);
+          }
+        });
+    executorService.scheduleWithFixedDelay(
+        () -> {
+          try {
+            reload();
+          } catch (Exception e) {
+            log.error("全服邮件缓存同步失败", e);
+          }
+        },
+        0,
+        group.getReloadInterval(),
+        TimeUnit.SECONDS);
+    executorService.scheduleWithFixedDelay(
+        () -> {
+          try {
+            if (loaded) {
+              load();
+            }
+          } catch (Exception e) {
+            log.error("全服邮件缓存增量同步失败", e);
+          }
+        },
+        group.getLoadInterval(),
+        group.getLoadInterval(),
+        TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() {
+    executorService.shutdownNow();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return false;
+  }
+
+  @Value
+  public static class Item {
+    long groupId;
+    long createTime;
+    long expireTime;
+    String contentId;
+    MailLifecycleInfo lifecycle;
+    MailServerPriority priority;
+
+    Item(MailServerGroupEntity groupEntity) {
+      this.groupId = groupEntity.getGroupId();
+      this.createTime =
+          groupEntity.getCreateTime() < 1 && Objects.nonNull(groupEntity.getCreatedAt())
+              ? groupEntity
+                  .getCreatedAt()
+                  .atZone(ZoneId.systemDefault())
+                  .toInstant()
+                  .toEpochMilli()
+              : groupEntity.getCreateTime();
+      this.expireTime = groupEntity.getExpireTime();
+      this.contentId = groupEntity.getContentId();
+      this.lifecycle = groupEntity.getLifecycle();
+      this.priority = MailServerPriority.orDefault(groupEntity.getPriority());
+    }
+
+    boolean isExpired(long now) {
+      return expireTime > 0 && expireTime <= now;
+    }
+  }
+}
@@ -38,6 +38,9 @@ public class MailServerGroupEntity {
   @MongoId long groupId;
   String contentId;
   MailLifecycleInfo lifecycle;
+  long createTime; // 毫秒
+  long expireTime; // 毫秒, 0 表示不过期
+  MailServerPriority priority;
 
   @Version byte dummy;
 
@@ -18,13 +18,17 @@ package org.doodle.mail.server;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import org.bson.Document;
 import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
 import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
 
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @RequiredArgsConstructor
 public class MailServerGroupListener extends AbstractMongoEventListener<MailServerGroupEntity> {
   MailServerGroupService groupService;
+  MailServerGroupCatalog groupCatalog;
 
   @Override
   public void onBeforeConvert(BeforeConvertEvent<MailServerGroupEntity> event) {
@@ -32,5 +36,23 @@ public class MailServerGroupListener extends AbstractMongoEventListener<MailServ
     if (groupEntity.getGroupId() < 1) {
       groupEntity.setGroupId(groupService.generateSeq());
     }
+    if (groupEntity.getCreateTime() < 1) {
+      groupEntity.setCreateTime(System.currentTimeMillis());
+    }
+  }
+
+  @Override
+  public void onAfterSave(AfterSaveEvent<MailServerGroupEntity> event) {
+    groupCatalog.put(event.getSource());
+  }
+
+  @Override
+  public void onAfterDelete(AfterDeleteEvent<MailServerGroupEntity> event) {
+    Document document = event.getSource();
+    if (document.get("_id") instanceof Number groupId) {
+      groupCatalog.remove(groupId.longValue());
+    } else {
+      groupCatalog.reload();
+    }
   }
 }
@@ -15,6 +15,7 @@
  */
 package org.doodle.mail.server;
 
+import java.time.Duration;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
@@ -22,14 +23,18 @@ import org.doodle.design.mail.MailRoleSyncOps;
 import org.doodle.design.mail.MailRoleSyncRequest;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Controller
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @RequiredArgsConstructor
 public class MailServerGroupRSocketController implements MailRoleSyncOps.RSocket {
+  public static final String SYNC_BATCH_MAPPING = MailRoleSyncOps.RSocket.SYNC_MAPPING + ".batch";
+
   MailServerMapper mapper;
   MailServerGroupService groupService;
+  MailServerProperties properties;
 
   @MessageMapping(MailRoleSyncOps.RSocket.SYNC_MAPPING)
   @Override
@@ -38,4 +43,14 @@ public class MailServerGroupRSocketController implements MailRoleSyncOps.RSocket
         .flatMap(
             req -> groupService.syncMono(req.getRoleId(), req.getRoleCreateTime(), req.getRoute()));
   }
+
+  @MessageMapping(SYNC_BATCH_MAPPING)
+  public Mono<Void> syncBatch(Flux<MailRoleSyncRequest> requests) {
+    MailServerProperties.Group group = properties.getGroup();
+    return requests
+        .map(mapper::toSyncRole)
+        .bufferTimeout(group.getSyncBatchSize(), Duration.ofMillis(group.getSyncBatchWindow()))
+        .concatMap(groupService::syncMono)
+        .then();
+  }
 }
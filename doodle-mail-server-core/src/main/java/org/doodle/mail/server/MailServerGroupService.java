@@ -15,74 +15,262 @@
  */
 package org.doodle.mail.server;
 
-import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.Executor;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
 import lombok.AccessLevel;
+import lombok.Value;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 import org.doodle.design.mail.MailErrorCode;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.util.CollectionUtils;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Slf4j
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class MailServerGroupService extends MailServerSeqService {
-  MailServerGroupRepo groupRepo;
+  MailServerGroupCatalog groupCatalog;
   MailServerRoleService roleService;
   MailServerContentService contentService;
   MailServerDeliverService deliverService;
-  Executor executor;
+  MailServerProperties properties;
+  MailServerDeliverExecutor executor;
+  ConcurrentMap<String, CompletableFuture<Void>> inflights = new ConcurrentHashMap<>();
 
   public MailServerGroupService(
       MongoTemplate mongoTemplate,
-      MailServerGroupRepo groupRepo,
+      MailServerGroupCatalog groupCatalog,
       MailServerRoleService roleService,
       MailServerContentService contentService,
       MailServerDeliverService deliverService,
-      Executor executor) {
-    super(mongoTemplate, MailServerGroupEntity.COLLECTION);
-    this.groupRepo = groupRepo;
+      MailServerDeliverExecutor executor,
+      MailServerProperties properties) {
+    super(
+        mongoTemplate,
+        MailServerGroupEntity.COLLECTION,
+        properties.getGroup().getSeqBlockSize(),
+        properties.getGroup().getSeqBlockTimeout());
+    this.groupCatalog = groupCatalog;
     this.roleService = roleService;
     this.contentService = contentService;
     this.deliverService = deliverService;
+    this.properties = properties;
     this.executor = executor;
   }
 
   public Mono<Void> syncMono(String roleId, long roleCreateTime, Object route) {
-    return Mono.fromRunnable(() -> sync(roleId, roleCreateTime, route));
+    return syncMono(List.of(new SyncRole(roleId, roleCreateTime, route)));
+  }
+
+  public Mono<Void> syncMono(List<SyncRole> syncRoles) {
+    return Mono.defer(
+        () -> {
+          Map<String, SyncRole> roles = new LinkedHashMap<>();
+          syncRoles.forEach(syncRole -> roles.put(syncRole.getRoleId(), syncRole));
+
+          // 同一玩家并发的同步请求合并为一次, 后到的请求等待进行中的同步完成
+          Map<String, CompletableFuture<Void>> owned = new HashMap<>();
+          List<Mono<Void>> joined = new ArrayList<>();
+          for (Iterator<String> it = roles.keySet().iterator(); it.hasNext(); ) {
+            String roleId = it.next();
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            CompletableFuture<Void> inflight = inflights.putIfAbsent(roleId, future);
+            if (Objects.isNull(inflight)) {
+              owned.put(roleId, future);
+            } else {
+              joined.add(Mono.fromFuture(inflight));
+              it.remove();
+            }
+          }
+
+          return doSync(roles, owned)
+              .doOnError(e -> owned.values().forEach(future -> future.completeExceptionally(e)))
+              .doFinally(signal -> owned.forEach(this::complete))
+              .then(Mono.when(joined));
+        });
+  }
+
+  void complete(String roleId, CompletableFuture<Void> future) {
+    inflights.remove(roleId, future);
+    future.complete(null);
   }
 
   void sync(String roleId, long roleCreateTime, Object route) {
-    MailServerRoleSyncEntity roleSyncEntity = roleService.findOrElseCreate(roleId);
-    List<MailServerGroupEntity> groupList = groupRepo.findAll();
-    if (!CollectionUtils.isEmpty(groupList)) {
-      List<String> contentIds = new ArrayList<>();
-      for (MailServerGroupEntity group : groupList) {
-        if (group.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
-                > roleCreateTime
-            && group.getGroupId() < roleSyncEntity.getSyncId()) {
-          contentIds.add(group.getContentId());
-        }
-        if (group.getGroupId() > roleSyncEntity.getSyncId()) {
+    syncMono(roleId, roleCreateTime, route).block();
+  }
+
+  void sync(List<SyncRole> syncRoles) {
+    syncMono(syncRoles).block();
+  }
+
+  Mono<Void> doSync(Map<String, SyncRole> roles, Map<String, CompletableFuture<Void>> owned) {
+    if (roles.isEmpty()) {
+      return Mono.empty();
+    }
+    return roleService
+        .findAllOrElseCreate(roles.keySet())
+        .flatMap(
+            roleSyncEntities -> {
+              long minSyncId =
+                  roleSyncEntities.values().stream()
+                      .mapToLong(MailServerRoleSyncEntity::getSyncId)
+                      .min()
+                      .orElse(0);
+              long minRoleCreateTime =
+                  roles.values().stream().mapToLong(SyncRole::getRoleCreateTime).min().orElse(0);
+              return groupCatalog
+                  .findAllToSync(minSyncId, minRoleCreateTime)
+                  .map(groupList -> collectGroups(roles, roleSyncEntities, groupList))
+                  .filter(roleGroups -> !roleGroups.isEmpty())
+                  .flatMap(
+                      roleGroups ->
+                          contentService
+                              .findAllByIdMono(
+                                  roleGroups.values().stream()
+                                      .flatMap(List::stream)
+                                      .map(MailServerGroupCatalog.Item::getContentId)
+                                      .collect(Collectors.toSet()))
+                              .doOnNext(
+                                  contents ->
+                                      deliver(
+                                          roles, roleSyncEntities, roleGroups, contents, owned)));
+            })
+        .then();
+  }
+
+  Map<String, List<MailServerGroupCatalog.Item>> collectGroups(
+      Map<String, SyncRole> roles,
+      Map<String, MailServerRoleSyncEntity> roleSyncEntities,
+      List<MailServerGroupCatalog.Item> groupList) {
+    Map<String, List<MailServerGroupCatalog.Item>> roleGroups = new HashMap<>();
+    for (SyncRole syncRole : roles.values()) {
+      MailServerRoleSyncEntity roleSyncEntity = roleSyncEntities.get(syncRole.getRoleId());
+      List<MailServerGroupCatalog.Item> groups = new ArrayList<>();
+      for (MailServerGroupCatalog.Item group : groupList) {
+        if (group.getGroupId() > roleSyncEntity.getSyncId()
+            && group.getCreateTime() > syncRole.getRoleCreateTime()) {
+          groups.add(group);
           roleSyncEntity.setSyncId(group.getGroupId());
         }
       }
-      if (!CollectionUtils.isEmpty(contentIds)) {
-        List<MailServerContentEntity> contents = contentService.findAllById(contentIds);
-        if (!CollectionUtils.isEmpty(contents)) {
-          roleService.save(roleSyncEntity);
-          executor.execute(
-              () -> {
-                MailErrorCode errorCode = deliverService.deliver(roleId, route, contents);
-                if (errorCode == MailErrorCode.FAILURE) {
-                  log.error("给玩家 {} 推送 GROUP 邮件发生错误", roleId);
-                }
-              });
-        }
+      // 进度在投递成功后才保存, 投递失败的群组邮件在下次同步时重新投递
+      if (!groups.isEmpty()) {
+        roleGroups.put(syncRole.getRoleId(), groups);
       }
     }
+    return roleGroups;
+  }
+
+  void deliver(
+      Map<String, SyncRole> roles,
+      Map<String, MailServerRoleSyncEntity> roleSyncEntities,
+      Map<String, List<MailServerGroupCatalog.Item>> roleGroups,
+      List<MailServerContentEntity> contentEntities,
+      Map<String, CompletableFuture<Void>> owned) {
+    Map<String, MailServerContentEntity> contents =
+        contentEntities.stream()
+            .collect(Collectors.toMap(MailServerContentEntity::getContentId, (v) -> v));
+    // 玩家按本次最高优先级的群组邮件进入对应通道
+    Map<Lane, List<SyncRole>> laneRoles = new LinkedHashMap<>();
+    // 投递结束前玩家保持在同步中, 并发的同步请求等待本次投递, 不会重复投递
+    Map<String, CompletableFuture<Void>> delivering = new HashMap<>();
+    for (SyncRole syncRole : roles.values()) {
+      List<MailServerGroupCatalog.Item> groups = roleGroups.get(syncRole.getRoleId());
+      if (Objects.nonNull(groups)) {
+        MailServerPriority priority =
+            groups.stream()
+                .map(MailServerGroupCatalog.Item::getPriority)
+                .min(Enum::compareTo)
+                .orElse(MailServerPriority.NORMAL);
+        laneRoles
+            .computeIfAbsent(new Lane(syncRole.getRoute(), priority), (k) -> new ArrayList<>())
+            .add(syncRole);
+        delivering.put(syncRole.getRoleId(), owned.remove(syncRole.getRoleId()));
+      }
+    }
+    laneRoles.forEach(
+        (lane, laneSyncRoles) ->
+            Flux.fromIterable(laneSyncRoles)
+                .flatMap(
+                    syncRole ->
+                        executor
+                            .submit(
+                                lane.getPriority(),
+                                Mono.defer(
+                                    () ->
+                                        deliver(
+                                            syncRole.getRoleId(),
+                                            lane.getRoute(),
+                                            roleGroups.get(syncRole.getRoleId()).stream()
+                                                .map(MailServerGroupCatalog.Item::getContentId)
+                                                .distinct()
+                                                .map(contents::get)
+                                                .filter(Objects::nonNull)
+                                                .toList())))
+                            // 投递线程池拒绝的任务只影响当前玩家, 进度不推进, 下次同步时重试
+                            .onErrorResume(e -> Mono.just(onError(syncRole.getRoleId(), e)))
+                            .doOnNext(
+                                delivered -> {
+                                  if (delivered) {
+                                    roleService.save(roleSyncEntities.get(syncRole.getRoleId()));
+                                  }
+                                })
+                            .doFinally(
+                                signal ->
+                                    complete(
+                                        syncRole.getRoleId(),
+                                        delivering.get(syncRole.getRoleId()))),
+                    properties.getGroup().getDeliverConcurrency())
+                .subscribe(null, e -> log.error("推送 GROUP 邮件发生错误", e)));
+  }
+
+  // 返回 true 表示投递成功, 可以推进玩家的同步进度
+  Mono<Boolean> deliver(String roleId, Object route, List<MailServerContentEntity> contents) {
+    if (CollectionUtils.isEmpty(contents)) {
+      return Mono.just(true);
+    }
+    return deliverService
+        .deliver(roleId, route, contents)
+        .map(
+            errorCode -> {
+              if (errorCode == MailErrorCode.FAILURE) {
+                log.error("给玩家 {} 推送 GROUP 邮件发生错误", roleId);
+                return false;
+              }
+              return true;
+            })
+        .defaultIfEmpty(false);
+  }
+
+  boolean onError(String roleId, Throwable e) {
+    if (e instanceof MailServerBackoffException) {
+      log.warn("给玩家 {} 推送 GROUP 邮件推迟到下次同步: {}", roleId, e.getMessage());
+    } else {
+      log.error("给玩家 {} 推送 GROUP 邮件发生错误", roleId, e);
+    }
+    return false;
+  }
+
+  @Value
+  static class Lane {
+    Object route;
+    MailServerPriority priority;
+  }
+
+  @Value
+  public static class SyncRole {
+    String roleId;
+    long roleCreateTime;
+    Object route;
   }
 }
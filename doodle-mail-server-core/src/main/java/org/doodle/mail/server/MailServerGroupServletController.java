@@ -15,6 +15,7 @@
  */
 package org.doodle.mail.server;
 
+import java.util.List;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
@@ -24,12 +25,16 @@ import org.doodle.design.mail.model.payload.request.MailRoleSyncRequest;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @RequiredArgsConstructor
 public class MailServerGroupServletController implements MailRoleSyncOps.Servlet {
+  public static final String SYNC_BATCH_MAPPING = MailRoleSyncOps.Servlet.SYNC_MAPPING + "/batch";
+
+  MailServerMapper mapper;
   MailServerGroupService groupService;
 
   @PostMapping(MailRoleSyncOps.Servlet.SYNC_MAPPING)
@@ -39,6 +44,12 @@ public class MailServerGroupServletController implements MailRoleSyncOps.Servlet
     return Result.ok().body(null);
   }
 
+  @PostMapping(SYNC_BATCH_MAPPING)
+  public Result<Void> syncBatch(@RequestBody List<MailRoleSyncRequest> requests) {
+    groupService.sync(requests.stream().map(mapper::toSyncRole).toList());
+    return Result.ok().body(null);
+  }
+
   @ExceptionHandler(Exception.class)
   ResponseEntity<Result<Void>> onException(Exception ignored) {
     return ResponseEntity.badRequest().body(Result.bad());
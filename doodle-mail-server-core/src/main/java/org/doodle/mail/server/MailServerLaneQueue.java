@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class MailServerLaneQueue {
+  Map<MailServerPriority, ArrayDeque<Runnable>> lanes = new EnumMap<>(MailServerPriority.class);
+  Map<MailServerPriority, Integer> currentWeights = new EnumMap<>(MailServerPriority.class);
+  int capacity; // 所有通道合计
+  Consumer<Runnable> displacedHandler;
+  ReentrantLock lock = new ReentrantLock();
+  Condition notEmpty = lock.newCondition();
+  Condition notFull = lock.newCondition();
+
+  @NonFinal int count;
+
+  public MailServerLaneQueue(int capacity, Consumer<Runnable> displacedHandler) {
+    this.capacity = capacity;
+    this.displacedHandler = displacedHandler;
+    for (MailServerPriority priority : MailServerPriority.values()) {
+      lanes.put(priority, new ArrayDeque<>());
+      currentWeights.put(priority, 0);
+    }
+  }
+
+  // 队列已满时挤出低优先级通道中最新的任务, 被挤出的任务在锁外交给 displacedHandler
+  public boolean offer(MailServerPriority priority, Runnable task) {
+    Runnable displaced;
+    lock.lock();
+    try {
+      if (count < capacity) {
+        lanes.get(priority).offer(task);
+        count++;
+        notEmpty.signal();
+        return true;
+      }
+      displaced = displace(priority);
+      if (Objects.isNull(displaced)) {
+        return false;
+      }
+      lanes.get(priority).offer(task);
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+    displacedHandler.accept(displaced);
+    return true;
+  }
+
+  public void put(MailServerPriority priority, Runnable task) throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (count >= capacity) {
+        notFull.await();
+      }
+      lanes.get(priority).offer(task);
+      count++;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public Runnable take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      Runnable task;
+      while (Objects.isNull(task = poll())) {
+        notEmpty.await();
+      }
+      count--;
+      notFull.signal();
+      return task;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int size() {
+    lock.lock();
+    try {
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int size(MailServerPriority priority) {
+    lock.lock();
+    try {
+      return lanes.get(priority).size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int remainingCapacity() {
+    lock.lock();
+    try {
+      return capacity - count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int clear() {
+    return drain().size();
+  }
+
+  public List<Runnable> drain() {
+    lock.lock();
+    try {
+      List<Runnable> tasks = new ArrayList<>(count);
+      lanes.values().forEach(tasks::addAll);
+      lanes.values().forEach(ArrayDeque::clear);
+      count = 0;
+      notFull.signalAll();
+      return tasks;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private Runnable displace(MailServerPriority priority) {
+    MailServerPriority[] priorities = MailServerPriority.values();
+    for (int i = priorities.length - 1; priorities[i].getWeight() < priority.getWeight(); i--) {
+      Runnable task = lanes.get(priorities[i]).pollLast();
+      if (Objects.nonNull(task)) {
+        return task;
+      }
+    }
+    return null;
+  }
+
+  private Runnable poll() {
+    // 平滑加权轮询, 只在非空通道间分配
+    MailServerPriority selected = null;
+    int totalWeight = 0;
+    for (MailServerPriority priority : MailServerPriority.values()) {
+      if (lanes.get(priority).isEmpty()) {
+        continue;
+      }
+      int currentWeight = currentWeights.get(priority) + priority.getWeight();
+      currentWeights.put(priority, currentWeight);
+      totalWeight += priority.getWeight();
+      if (Objects.isNull(selected) || currentWeight > currentWeights.get(selected)) {
+        selected = priority;
+      }
+    }
+    if (Objects.isNull(selected)) {
+      return null;
+    }
+    currentWeights.put(selected, currentWeights.get(selected) - totalWeight);
+    return lanes.get(selected).poll();
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+import lombok.AccessLevel;
+import lombok.Value;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class MailServerLruCache<K, V> {
+  LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  long maxWeight;
+  ToLongFunction<V> weigher;
+  long expireAfterWrite; // 毫秒, 0 表示不过期
+  LongSupplier clock;
+
+  @NonFinal long weight;
+  @NonFinal long hitCount;
+  @NonFinal long missCount;
+  @NonFinal long evictionCount;
+
+  public MailServerLruCache(int maxSize) {
+    this(maxSize, (value) -> 1, 0);
+  }
+
+  public MailServerLruCache(long maxWeight, ToLongFunction<V> weigher, long expireAfterWrite) {
+    this(maxWeight, weigher, expireAfterWrite, System::currentTimeMillis);
+  }
+
+  MailServerLruCache(
+      long maxWeight, ToLongFunction<V> weigher, long expireAfterWrite, LongSupplier clock) {
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+    this.expireAfterWrite = expireAfterWrite;
+    this.clock = clock;
+  }
+
+  public synchronized V get(K key) {
+    Entry<V> entry = getEntry(key);
+    if (Objects.isNull(entry)) {
+      missCount++;
+      return null;
+    }
+    hitCount++;
+    return entry.getValue();
+  }
+
+  public synchronized void put(K key, V value) {
+    remove(key);
+    Entry<V> entry = new Entry<>(value, weigher.applyAsLong(value), clock.getAsLong());
+    entries.put(key, entry);
+    weight += entry.getWeight();
+    evict();
+  }
+
+  public synchronized V putIfAbsent(K key, V value) {
+    Entry<V> entry = getEntry(key);
+    if (Objects.nonNull(entry)) {
+      return entry.getValue();
+    }
+    put(key, value);
+    return null;
+  }
+
+  public synchronized void invalidate(K key) {
+    remove(key);
+  }
+
+  public synchronized void invalidateAll() {
+    entries.clear();
+    weight = 0;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  private Entry<V> getEntry(K key) {
+    Entry<V> entry = entries.get(key);
+    if (Objects.nonNull(entry)
+        && expireAfterWrite > 0
+        && clock.getAsLong() - entry.getWriteTime() > expireAfterWrite) {
+      remove(key);
+      return null;
+    }
+    return entry;
+  }
+
+  private void remove(K key) {
+    Entry<V> entry = entries.remove(key);
+    if (Objects.nonNull(entry)) {
+      weight -= entry.getWeight();
+    }
+  }
+
+  private void evict() {
+    Iterator<Entry<V>> iterator = entries.values().iterator();
+    while (weight > maxWeight && iterator.hasNext()) {
+      weight -= iterator.next().getWeight();
+      iterator.remove();
+      evictionCount++;
+    }
+  }
+
+  @Value
+  static class Entry<V> {
+    V value;
+    long weight;
+    long writeTime;
+  }
+}
@@ -16,14 +16,38 @@
 package org.doodle.mail.server;
 
 import java.util.List;
+import java.util.Objects;
+import lombok.Value;
 import org.doodle.design.mail.MailContentInfo;
 import org.doodle.design.mail.MailContentInfoList;
 import org.doodle.design.mail.MailMapper;
+import org.doodle.design.mail.MailRoleSyncRequest;
 import org.springframework.util.CollectionUtils;
 
 public class MailServerMapper extends MailMapper {
+  // 内容实体由内容缓存复用, 实体对象变化即视为内容版本变化
+  private final MailServerLruCache<String, CachedContentInfo> contentInfos;
+
+  public MailServerMapper() {
+    this(10_000);
+  }
+
+  public MailServerMapper(int contentInfoCacheSize) {
+    this.contentInfos = new MailServerLruCache<>(contentInfoCacheSize);
+  }
 
   public MailContentInfo toProto(MailServerContentEntity contentEntity) {
+    CachedContentInfo cached = contentInfos.get(contentEntity.getContentId());
+    if (Objects.nonNull(cached) && cached.getContentEntity() == contentEntity) {
+      return cached.getContentInfo();
+    }
+    MailContentInfo contentInfo = buildProto(contentEntity);
+    contentInfos.put(
+        contentEntity.getContentId(), new CachedContentInfo(contentEntity, contentInfo));
+    return contentInfo;
+  }
+
+  private MailContentInfo buildProto(MailServerContentEntity contentEntity) {
     return MailContentInfo.newBuilder()
         .setContentId(contentEntity.getContentId())
         .setTitle(contentEntity.getTitle())
@@ -49,4 +73,33 @@ public class MailServerMapper extends MailMapper {
     }
     return builder.build();
   }
+
+  public MailServerLruCache<String, CachedContentInfo> getContentInfoCache() {
+    return contentInfos;
+  }
+
+  public org.doodle.design.mail.model.payload.request.MailDeliverRequest toDeliverRequest(
+      String roleId, List<MailServerContentEntity> contentEntities) {
+    return org.doodle.design.mail.model.payload.request.MailDeliverRequest.builder()
+        .roleId(roleId)
+        .content(contentEntities.stream().map(this::toPojo).toList())
+        .build();
+  }
+
+  public MailServerGroupService.SyncRole toSyncRole(MailRoleSyncRequest request) {
+    return new MailServerGroupService.SyncRole(
+        request.getRoleId(), request.getRoleCreateTime(), request.getRoute());
+  }
+
+  public MailServerGroupService.SyncRole toSyncRole(
+      org.doodle.design.mail.model.payload.request.MailRoleSyncRequest request) {
+    return new MailServerGroupService.SyncRole(
+        request.getRoleId(), request.getRoleCreateTime(), request.getRoute());
+  }
+
+  @Value
+  public static class CachedContentInfo {
+    MailServerContentEntity contentEntity;
+    MailContentInfo contentInfo;
+  }
 }
@@ -15,6 +15,11 @@
  */
 package org.doodle.mail.server;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import lombok.AccessLevel;
 import lombok.Data;
 import lombok.experimental.FieldDefaults;
@@ -30,17 +35,98 @@ public class MailServerProperties {
 
   Push push = new Push();
 
+  Group group = new Group();
+
+  Role role = new Role();
+
+  Content content = new Content();
+
   @Data
-  @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+  @FieldDefaults(level = AccessLevel.PRIVATE)
   public static class Deliver {
     int threadNum = 4;
+    int queueCapacity = 10_000;
+    MailServerDeliverExecutor.RejectPolicy rejectPolicy =
+        MailServerDeliverExecutor.RejectPolicy.ABORT;
+    boolean virtualThreads = false;
+    int maxConcurrency = 256;
+    long timeout = 5000; // 毫秒
+    double rateLimit = 0; // 每秒, 0 表示不限流
+    int rateBurst = 100;
+    long rateMaxWait = 5000; // 毫秒, 超出后交给扫描任务稍后重试
+    long rateIdleTime = 10 * 60 * 1000; // 毫秒
+    List<RateLimit> rateLimits = new ArrayList<>();
+    int breakerFailureThreshold = 5;
+    long breakerOpenTime = 30 * 1000; // 毫秒
+    long breakerIdleTime = 10 * 60 * 1000; // 毫秒
+    boolean stream = false;
+    int streamWindow = 256;
+    long servletConnectTimeout = 3000; // 毫秒
+    int servletMaxConnectionsPerHost = 64;
+  }
+
+  @Data
+  @FieldDefaults(level = AccessLevel.PRIVATE)
+  public static class RateLimit {
+    Map<String, String> tags = new HashMap<>();
+    String host; // SERVLET 路由按主机匹配, 为空时按 RSOCKET 路由的 tags 匹配
+    double rate; // 每秒
+    int burst = 100;
   }
 
   @Data
-  @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+  @FieldDefaults(level = AccessLevel.PRIVATE)
   public static class Push {
     long maxRetryTime = 10;
     long scanDelay = 10;
-    long scanInterval = 5 * 60; // 秒
+    long scanInterval = 1; // 秒
+    long retryBaseDelay = 1000; // 毫秒
+    long retryMaxDelay = 5 * 60 * 1000; // 毫秒
+    String nodeId = UUID.randomUUID().toString();
+    long leaseTime = 60 * 1000; // 毫秒
+    int scanPageSize = 100;
+    int scanMaxPerTick = 10_000;
+    int maxPending = 2000;
+    int workerNum = 4;
+    int queueCapacity = 10_000;
+    // 队列满时留给扫描任务重试, 不在调用方或合并线程上投递
+    MailServerDeliverExecutor.RejectPolicy rejectPolicy =
+        MailServerDeliverExecutor.RejectPolicy.ABORT;
+    int coalesceSize = 100;
+    long coalesceWindow = 50; // 毫秒
+    long tickDuration = 1000; // 毫秒
+    int wheelSize = 60;
+    int wheelLevels = 3;
+    long dueHorizon = 10 * 60; // 秒
+    long dueLoadInterval = 60; // 秒
+  }
+
+  @Data
+  @FieldDefaults(level = AccessLevel.PRIVATE)
+  public static class Group {
+    long loadInterval = 1; // 秒
+    long reloadInterval = 10 * 60; // 秒
+    long gapTimeout = 10 * 1000; // 毫秒
+    long seqBlockSize = 1;
+    long seqBlockTimeout = 5 * 1000; // 毫秒, 需小于 gapTimeout
+    int syncBatchSize = 500;
+    long syncBatchWindow = 20; // 毫秒
+    int deliverConcurrency = 32;
+  }
+
+  @Data
+  @FieldDefaults(level = AccessLevel.PRIVATE)
+  public static class Role {
+    int flushSize = 1000;
+    long flushInterval = 500; // 毫秒
+    int maxDirtySize = 100_000;
+  }
+
+  @Data
+  @FieldDefaults(level = AccessLevel.PRIVATE)
+  public static class Content {
+    long cacheMaxWeight = 64 * 1024 * 1024; // 字节
+    long cacheExpire = 60 * 1000; // 毫秒, 其他节点修改内容后本节点最多读到这么久的旧数据
+    int protoCacheSize = 10_000;
   }
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@RequiredArgsConstructor
+public class MailServerPushDispatcher {
+  Set<String> pendingPushIds = ConcurrentHashMap.newKeySet();
+  ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+  MailServerPushService pushService;
+  MailServerDeliverExecutor executor;
+  MailServerProperties properties;
+
+  Map<MailServerPriority, List<String>> buffers = new EnumMap<>(MailServerPriority.class);
+
+  public void dispatch(String pushId) {
+    dispatch(pushId, MailServerPriority.NORMAL);
+  }
+
+  public void dispatch(String pushId, MailServerPriority priority) {
+    if (!pendingPushIds.add(pushId)) {
+      return;
+    }
+    List<String> pushIds = null;
+    synchronized (this) {
+      List<String> buffer = buffers.computeIfAbsent(priority, (k) -> new ArrayList<>());
+      buffer.add(pushId);
+      if (buffer.size() >= properties.getPush().getCoalesceSize()) {
+        pushIds = drain(priority);
+      } else if (buffer.size() == 1) {
+        executorService.schedule(
+            () -> flush(priority),
+            properties.getPush().getCoalesceWindow(),
+            TimeUnit.MILLISECONDS);
+      }
+    }
+    if (pushIds != null) {
+      submit(pushIds, priority);
+    }
+  }
+
+  void flush(MailServerPriority priority) {
+    List<String> pushIds;
+    synchronized (this) {
+      pushIds = drain(priority);
+    }
+    if (!pushIds.isEmpty()) {
+      submit(pushIds, priority);
+    }
+  }
+
+  private List<String> drain(MailServerPriority priority) {
+    List<String> pushIds = buffers.remove(priority);
+    return pushIds != null ? pushIds : List.of();
+  }
+
+  private void submit(List<String> pushIds, MailServerPriority priority) {
+    // 入队被拒绝或被高优先级任务挤出时都以错误结束, 释放后等待下次扫描
+    executor
+        .submit(priority, Mono.fromRunnable(() -> pushService.push(pushIds)))
+        .doFinally(signal -> pushIds.forEach(pendingPushIds::remove))
+        .subscribe(
+            null,
+            e -> {
+              if (e instanceof RejectedExecutionException) {
+                log.warn("推送队列已满, 等待下次扫描: {}", pushIds.size());
+              } else {
+                log.error("推送邮件投递失败: {}", pushIds, e);
+              }
+            });
+  }
+
+  public int getPendingSize() {
+    return pendingPushIds.size();
+  }
+
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  public void shutdown() {
+    executorService.shutdown();
+    executor.shutdown();
+    // 节点编号每次启动都不同, 主动释放租约让其他节点无需等待过期
+    try {
+      pushService.releaseAll();
+    } catch (Exception e) {
+      log.warn("释放推送调度租约失败: {}", e.toString());
+    }
+  }
+}
@@ -22,6 +22,7 @@ import lombok.experimental.FieldDefaults;
 import org.doodle.design.mail.MailState;
 import org.doodle.design.mail.model.info.MailTargetInfo;
 import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.MongoId;
 
@@ -33,6 +34,7 @@ import org.springframework.data.mongodb.core.mapping.MongoId;
 @AllArgsConstructor
 @NoArgsConstructor
 @Document(collection = MailServerPushEntity.COLLECTION)
+@CompoundIndex(name = "due", def = "{'state': 1, 'dueTime': 1}")
 public class MailServerPushEntity {
   public static final String COLLECTION = "mail-pushs";
 
@@ -41,6 +43,8 @@ public class MailServerPushEntity {
   String contentId;
   MailState state = MailState.PENDING;
   Instant sendTime;
+  Instant dueTime;
+  MailServerPriority priority;
 
   @CreatedDate LocalDateTime createdAt;
 }
@@ -15,6 +15,8 @@
  */
 package org.doodle.mail.server;
 
+import java.time.Instant;
+import java.util.Objects;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
@@ -27,13 +29,23 @@ import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @RequiredArgsConstructor
 public class MailServerPushListener extends AbstractMongoEventListener<MailServerPushEntity> {
-  MailServerPushService pushService;
+  MailServerPushDispatcher pushDispatcher;
+  MailServerPushTimer pushTimer;
 
   @Override
   public void onAfterSave(AfterSaveEvent<MailServerPushEntity> event) {
     MailServerPushEntity pushEntity = event.getSource();
-    if (pushEntity.getState() == MailState.SCHEDULING) {
-      pushService.schedule(pushEntity);
+    if (pushEntity.getState() != MailState.SCHEDULING) {
+      return;
     }
+    MailServerPriority priority = MailServerPriority.orDefault(pushEntity.getPriority());
+    if (Objects.nonNull(pushEntity.getDueTime())
+        && pushEntity.getDueTime().isAfter(Instant.now())) {
+      if (!pushTimer.schedule(pushEntity.getPushId(), pushEntity.getDueTime(), priority)) {
+        log.info("定时推送超出时间轮范围, 等待后续加载: {}", pushEntity.getPushId());
+      }
+      return;
+    }
+    pushDispatcher.dispatch(pushEntity.getPushId(), priority);
   }
 }
@@ -15,6 +15,7 @@
  */
 package org.doodle.mail.server;
 
+import java.util.Objects;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -30,6 +31,7 @@ import org.springframework.context.SmartLifecycle;
 public class MailServerPushScanner implements SmartLifecycle {
   ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
   MailServerPushService pushService;
+  MailServerPushDispatcher pushDispatcher;
   MailServerProperties properties;
 
   @Override
@@ -39,12 +41,45 @@ public class MailServerPushScanner implements SmartLifecycle {
         properties.getPush().getScanDelay(),
         properties.getPush().getScanInterval());
     executorService.scheduleAtFixedRate(
-        pushService::scanSchedules,
+        () -> {
+          try {
+            scan();
+          } catch (Exception e) {
+            log.error("扫描推送邮件调度失败", e);
+          }
+        },
         properties.getPush().getScanDelay(),
         properties.getPush().getScanInterval(),
         TimeUnit.SECONDS);
   }
 
+  void scan() {
+    MailServerProperties.Push push = properties.getPush();
+    int claimed = 0;
+    String cursor = null;
+    // 每轮扫描按页认领, 待投递的推送数超出上限或达到单轮上限时留到下一轮,
+    // 避免认领的推送在租约到期前来不及投递而被其他节点重复认领
+    while (claimed < push.getScanMaxPerTick()
+        && pushDispatcher.getPendingSize() + push.getScanPageSize() <= push.getMaxPending()) {
+      MailServerPushService.ClaimPage page =
+          pushService.claimSchedules(cursor, push.getScanPageSize());
+      page.getScheduleEntities()
+          .forEach(
+              scheduleEntity ->
+                  pushDispatcher.dispatch(
+                      scheduleEntity.getPushId(),
+                      MailServerPriority.orDefault(scheduleEntity.getPriority())));
+      claimed += page.getScheduleEntities().size();
+      cursor = page.getCursor();
+      if (Objects.isNull(cursor)) {
+        break;
+      }
+    }
+    if (claimed > 0) {
+      log.info("认领需要重试的推送任务: {} 个", claimed);
+    }
+  }
+
   @Override
   public void stop() {
     executorService.shutdownNow();
@@ -15,12 +15,14 @@
  */
 package org.doodle.mail.server;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
 import lombok.*;
 import lombok.experimental.FieldDefaults;
 import org.doodle.design.mail.MailScheduleState;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.MongoId;
@@ -33,6 +35,8 @@ import org.springframework.data.mongodb.core.mapping.MongoId;
 @AllArgsConstructor
 @NoArgsConstructor
 @Document(collection = MailServerPushScheduleEntity.COLLECTION)
+@CompoundIndex(name = "due", def = "{'state': 1, 'nextAttemptTime': 1}")
+@CompoundIndex(name = "lease", def = "{'state': 1, 'leaseExpireTime': 1}")
 public class MailServerPushScheduleEntity {
   public static final String COLLECTION = "mail-push-schedules";
 
@@ -42,8 +46,16 @@ public class MailServerPushScheduleEntity {
 
   MailScheduleState state;
 
+  MailServerPriority priority;
+
   long retryTime;
 
+  Instant nextAttemptTime;
+
+  String owner;
+
+  Instant leaseExpireTime;
+
   @CreatedDate LocalDateTime createdAt;
 
   @LastModifiedDate LocalDateTime modifiedAt;
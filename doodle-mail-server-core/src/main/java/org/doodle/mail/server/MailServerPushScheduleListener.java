@@ -28,13 +28,14 @@ import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
 @RequiredArgsConstructor
 public class MailServerPushScheduleListener
     extends AbstractMongoEventListener<MailServerPushScheduleEntity> {
-  MailServerPushService pushService;
+  MailServerPushDispatcher pushDispatcher;
 
   @Override
   public void onAfterSave(AfterSaveEvent<MailServerPushScheduleEntity> event) {
     MailServerPushScheduleEntity scheduleEntity = event.getSource();
     if (scheduleEntity.getState() == MailScheduleState.SENDING) {
-      pushService.schedule(scheduleEntity);
+      pushDispatcher.dispatch(
+          scheduleEntity.getPushId(), MailServerPriority.orDefault(scheduleEntity.getPriority()));
     }
   }
 }
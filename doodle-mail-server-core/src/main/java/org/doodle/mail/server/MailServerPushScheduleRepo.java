@@ -15,16 +15,16 @@
  */
 package org.doodle.mail.server;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
-import org.doodle.design.mail.MailScheduleState;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface MailServerPushScheduleRepo
     extends MongoRepository<MailServerPushScheduleEntity, String> {
-  List<MailServerPushScheduleEntity> findAllByState(MailScheduleState state);
-
   Optional<MailServerPushScheduleEntity> findByPushId(String pushId);
+
+  List<MailServerPushScheduleEntity> findAllByPushIdIn(Collection<String> pushIds);
 }
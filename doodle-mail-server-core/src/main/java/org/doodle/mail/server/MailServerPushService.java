@@ -16,104 +16,363 @@
 package org.doodle.mail.server;
 
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 import org.doodle.design.mail.MailErrorCode;
 import org.doodle.design.mail.MailScheduleState;
 import org.doodle.design.mail.MailState;
 import org.doodle.design.mail.model.info.MailTargetInfo;
-import org.springframework.util.CollectionUtils;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Slf4j
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @RequiredArgsConstructor
 public class MailServerPushService {
+  MongoTemplate mongoTemplate;
   MailServerPushRepo pushRepo;
   MailServerPushScheduleRepo scheduleRepo;
   MailServerContentService contentService;
   MailServerDeliverService deliverService;
   MailServerProperties properties;
 
-  public void schedule(MailServerPushScheduleEntity scheduleEntity) {
-    pushRepo
-        .findById(scheduleEntity.getPushId())
-        .ifPresentOrElse(
-            pushEntity -> schedule(scheduleEntity, pushEntity),
-            () -> scheduleRepo.delete(scheduleEntity));
+  public void push(List<String> pushIds) {
+    Map<String, MailServerPushEntity> pushEntities =
+        pushRepo.findAllById(pushIds).stream()
+            .collect(Collectors.toMap(MailServerPushEntity::getPushId, (v) -> v));
+    Map<String, MailServerPushScheduleEntity> scheduleEntities =
+        scheduleRepo.findAllByPushIdIn(pushIds).stream()
+            .collect(
+                Collectors.toMap(
+                    MailServerPushScheduleEntity::getPushId, (v) -> v, (v1, v2) -> v1));
+
+    List<Pending> pendings = new ArrayList<>();
+    for (String pushId : pushIds) {
+      MailServerPushEntity pushEntity = pushEntities.get(pushId);
+      MailServerPushScheduleEntity scheduleEntity = scheduleEntities.get(pushId);
+      if (Objects.isNull(pushEntity)) {
+        if (Objects.nonNull(scheduleEntity)) {
+          scheduleRepo.delete(scheduleEntity);
+        }
+        continue;
+      }
+      if (Objects.isNull(scheduleEntity)) {
+        if (isPending(pushEntity)) {
+          continue;
+        }
+        scheduleEntity = scheduleNew(pushEntity);
+      }
+      if (Objects.nonNull(scheduleEntity) && isSchedulable(scheduleEntity, pushEntity)) {
+        pendings.add(new Pending(scheduleEntity, pushEntity));
+      }
+    }
+    if (pendings.isEmpty()) {
+      return;
+    }
+
+    Map<String, MailServerContentEntity> contents =
+        contentService
+            .findAllById(
+                pendings.stream()
+                    .map(pending -> pending.getPushEntity().getContentId())
+                    .collect(Collectors.toSet()))
+            .stream()
+            .collect(
+                Collectors.toMap(MailServerContentEntity::getContentId, (v) -> v, (v1, v2) -> v1));
+    // 同一玩家同一路由的推送合并为一次投递
+    Map<Target, List<Pending>> targets = new LinkedHashMap<>();
+    for (Pending pending : pendings) {
+      if (!contents.containsKey(pending.getPushEntity().getContentId())) {
+        finish(pending.getScheduleEntity());
+        continue;
+      }
+      MailTargetInfo targetInfo = pending.getPushEntity().getTargetInfo();
+      targets
+          .computeIfAbsent(
+              new Target(targetInfo.getRoleId(), targetInfo.getRoute()), (k) -> new ArrayList<>())
+          .add(pending);
+    }
+
+    Flux.fromIterable(targets.entrySet())
+        .flatMap(
+            target ->
+                deliverService
+                    .deliver(
+                        target.getKey().getRoleId(),
+                        target.getKey().getRoute(),
+                        target.getValue().stream()
+                            .map(pending -> contents.get(pending.getPushEntity().getContentId()))
+                            .toList())
+                    .map(errorCode -> new Outcome(target.getValue(), errorCode, 0))
+                    .onErrorResume(
+                        MailServerBackoffException.class,
+                        e -> Mono.just(new Outcome(target.getValue(), null, e.getRetryAfter()))))
+        .collectList()
+        .blockOptional()
+        .orElse(List.of())
+        .forEach(
+            outcome ->
+                outcome
+                    .getPendings()
+                    .forEach(
+                        pending -> {
+                          if (outcome.getRetryAfter() > 0) {
+                            park(pending.getScheduleEntity(), outcome.getRetryAfter());
+                          } else {
+                            complete(
+                                pending.getScheduleEntity(),
+                                pending.getPushEntity(),
+                                outcome.getErrorCode());
+                          }
+                        }));
   }
 
-  private void schedule(
+  private MailServerPushScheduleEntity scheduleNew(MailServerPushEntity pushEntity) {
+    if (pushEntity.getState() != MailState.SCHEDULING) {
+      return null;
+    }
+    log.info("推送邮件调度: {}", pushEntity);
+    MailServerPushScheduleEntity scheduleEntity =
+        MailServerPushScheduleEntity.builder()
+            .scheduleId(pushEntity.getPushId())
+            .pushId(pushEntity.getPushId())
+            .priority(MailServerPriority.orDefault(pushEntity.getPriority()))
+            .state(MailScheduleState.SENDING)
+            .owner(properties.getPush().getNodeId())
+            .leaseExpireTime(
+                Instant.now()
+                    .plusMillis(properties.getPush().getLeaseTime())
+                    .truncatedTo(ChronoUnit.MILLIS))
+            .build();
+    try {
+      return scheduleRepo.insert(scheduleEntity);
+    } catch (DuplicateKeyException e) {
+      log.info("邮件调度已经开始: {}", pushEntity.getPushId());
+      return null;
+    }
+  }
+
+  private boolean isPending(MailServerPushEntity pushEntity) {
+    return Objects.nonNull(pushEntity.getDueTime())
+        && pushEntity.getDueTime().isAfter(Instant.now());
+  }
+
+  private boolean isSchedulable(
       MailServerPushScheduleEntity scheduleEntity, MailServerPushEntity pushEntity) {
     if (pushEntity.getState() != MailState.SCHEDULING) {
       log.info("删除推送调度, 当前推送邮件状态: {}", pushEntity.getState());
       scheduleRepo.delete(scheduleEntity);
+      return false;
+    }
+    if (!isOwner(scheduleEntity)) {
+      log.info("邮件调度等待重试或由其他节点处理: {}", scheduleEntity);
+      return false;
     }
+    return true;
+  }
 
-    contentService
-        .findById(pushEntity.getContentId())
-        .ifPresentOrElse(
-            contentEntity -> schedule(scheduleEntity, pushEntity, contentEntity),
-            () -> scheduleRepo.delete(scheduleEntity));
+  // 路由熔断时推迟调度, 不消耗重试次数
+  private void park(MailServerPushScheduleEntity scheduleEntity, long retryAfter) {
+    log.info("投递路由熔断, 推迟邮件调度 {} 毫秒: {}", retryAfter, scheduleEntity.getPushId());
+    release(scheduleEntity, scheduleEntity.getRetryTime(), Instant.now().plusMillis(retryAfter));
   }
 
-  private void schedule(
+  private void complete(
       MailServerPushScheduleEntity scheduleEntity,
       MailServerPushEntity pushEntity,
-      MailServerContentEntity contentEntity) {
-
-    MailTargetInfo targetInfo = pushEntity.getTargetInfo();
-    MailErrorCode errorCode =
-        deliverService.deliver(
-            targetInfo.getRoleId(), targetInfo.getRoute(), List.of(contentEntity));
+      MailErrorCode errorCode) {
+    boolean owned;
     if (errorCode == MailErrorCode.FAILURE) {
       if (scheduleEntity.getRetryTime() >= properties.getPush().getMaxRetryTime()) {
         log.info("邮件推送调度已达到最大重试次数, 进入IDLE状态并删除调度. {}", scheduleEntity);
         pushEntity.setState(MailState.DIE);
-        scheduleRepo.delete(scheduleEntity);
+        owned = finish(scheduleEntity);
       } else {
+        long retryTime = scheduleEntity.getRetryTime();
         if (pushEntity.getSendTime() != null) {
-          scheduleEntity.setRetryTime(scheduleEntity.getRetryTime() + 1);
+          retryTime++;
         }
-        scheduleEntity.setState(MailScheduleState.IDLE);
-        scheduleRepo.save(scheduleEntity);
+        owned = release(scheduleEntity, retryTime, nextAttemptTime(retryTime));
       }
     } else {
       log.info("邮件推送调度已完成并删除. {}", scheduleEntity);
       pushEntity.setState(MailState.COMPLETED);
-      scheduleRepo.delete(scheduleEntity);
+      owned = finish(scheduleEntity);
+    }
+    if (!owned) {
+      log.info("邮件调度租约已失效, 结果交由当前持有者处理: {}", scheduleEntity.getPushId());
+      return;
     }
     pushEntity.setSendTime(Instant.now());
     pushRepo.save(pushEntity);
   }
 
-  public void schedule(MailServerPushEntity pushEntity) {
-    scheduleRepo
-        .findByPushId(pushEntity.getPushId())
-        .ifPresentOrElse(
-            scheduleEntity -> log.info("邮件调度已经开始: {}", scheduleEntity),
-            () -> scheduleNew(pushEntity));
+  // 只有仍持有本次租约时才能修改调度, 租约过期后可能已被其他节点重新认领
+  Query owned(MailServerPushScheduleEntity scheduleEntity) {
+    return Query.query(
+        Criteria.where("_id")
+            .is(scheduleEntity.getScheduleId())
+            .and("owner")
+            .is(properties.getPush().getNodeId())
+            .and("leaseExpireTime")
+            .is(scheduleEntity.getLeaseExpireTime()));
   }
 
-  private void scheduleNew(MailServerPushEntity pushEntity) {
-    log.info("推送邮件调度: {}", pushEntity);
-    MailServerPushScheduleEntity scheduleEntity =
-        MailServerPushScheduleEntity.builder()
-            .pushId(pushEntity.getPushId())
-            .state(MailScheduleState.SENDING)
-            .build();
-    scheduleRepo.save(scheduleEntity);
+  boolean finish(MailServerPushScheduleEntity scheduleEntity) {
+    return mongoTemplate
+            .remove(owned(scheduleEntity), MailServerPushScheduleEntity.class)
+            .getDeletedCount()
+        > 0;
   }
 
-  public void scanSchedules() {
-    List<MailServerPushScheduleEntity> scheduleEntities =
-        scheduleRepo.findAllByState(MailScheduleState.IDLE);
-    if (!CollectionUtils.isEmpty(scheduleEntities)) {
-      log.info("扫描到需要重试推送任务: {}", scheduleEntities);
-      scheduleEntities.forEach(schedule -> schedule.setState(MailScheduleState.SENDING));
-      scheduleRepo.saveAll(scheduleEntities);
+  boolean release(
+      MailServerPushScheduleEntity scheduleEntity, long retryTime, Instant nextAttemptTime) {
+    return mongoTemplate
+            .updateFirst(
+                owned(scheduleEntity),
+                new Update()
+                    .set("state", MailScheduleState.IDLE)
+                    .set("retryTime", retryTime)
+                    .set("nextAttemptTime", nextAttemptTime)
+                    .unset("owner")
+                    .unset("leaseExpireTime"),
+                MailServerPushScheduleEntity.class)
+            .getModifiedCount()
+        > 0;
+  }
+
+  public void releaseAll() {
+    long count =
+        mongoTemplate
+            .updateMulti(
+                Query.query(
+                    Criteria.where("state")
+                        .is(MailScheduleState.SENDING)
+                        .and("owner")
+                        .is(properties.getPush().getNodeId())),
+                new Update()
+                    .set("state", MailScheduleState.IDLE)
+                    .unset("owner")
+                    .unset("leaseExpireTime"),
+                MailServerPushScheduleEntity.class)
+            .getModifiedCount();
+    if (count > 0) {
+      log.info("释放本节点认领的推送调度: {} 个", count);
     }
   }
+
+  Instant nextAttemptTime(long retryTime) {
+    MailServerProperties.Push push = properties.getPush();
+    long delay =
+        Math.min(push.getRetryMaxDelay(), push.getRetryBaseDelay() << Math.min(retryTime, 20));
+    delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    return Instant.now().plusMillis(delay);
+  }
+
+  boolean isOwner(MailServerPushScheduleEntity scheduleEntity) {
+    return scheduleEntity.getState() == MailScheduleState.SENDING
+        && Objects.equals(scheduleEntity.getOwner(), properties.getPush().getNodeId())
+        && Objects.nonNull(scheduleEntity.getLeaseExpireTime())
+        && scheduleEntity.getLeaseExpireTime().isAfter(Instant.now());
+  }
+
+  public ClaimPage claimSchedules(String cursor, int pageSize) {
+    MailServerProperties.Push push = properties.getPush();
+    Instant now = Instant.now();
+    Criteria criteria =
+        Objects.isNull(cursor)
+            ? claimable(now)
+            : new Criteria().andOperator(claimable(now), Criteria.where("_id").gt(cursor));
+    Query pageQuery = Query.query(criteria).with(Sort.by("_id")).limit(pageSize);
+    pageQuery.fields().include("_id");
+    List<String> scheduleIds =
+        mongoTemplate.find(pageQuery, MailServerPushScheduleEntity.class).stream()
+            .map(MailServerPushScheduleEntity::getScheduleId)
+            .toList();
+    if (scheduleIds.isEmpty()) {
+      return new ClaimPage(List.of(), null);
+    }
+
+    // 租约到期时间同时作为本次认领的标识, 用于回读本节点实际认领成功的调度
+    Instant leaseExpireTime = now.plusMillis(push.getLeaseTime()).truncatedTo(ChronoUnit.MILLIS);
+    mongoTemplate.updateMulti(
+        Query.query(
+            new Criteria().andOperator(claimable(now), Criteria.where("_id").in(scheduleIds))),
+        new Update()
+            .set("state", MailScheduleState.SENDING)
+            .set("owner", push.getNodeId())
+            .set("leaseExpireTime", leaseExpireTime),
+        MailServerPushScheduleEntity.class);
+    Query claimedQuery =
+        Query.query(
+            Criteria.where("_id")
+                .in(scheduleIds)
+                .and("owner")
+                .is(push.getNodeId())
+                .and("leaseExpireTime")
+                .is(leaseExpireTime));
+    claimedQuery.fields().include("pushId", "priority");
+    List<MailServerPushScheduleEntity> scheduleEntities =
+        mongoTemplate.find(claimedQuery, MailServerPushScheduleEntity.class);
+    return new ClaimPage(
+        scheduleEntities,
+        scheduleIds.size() < pageSize ? null : scheduleIds.get(scheduleIds.size() - 1));
+  }
+
+  Criteria claimable(Instant now) {
+    return new Criteria()
+        .orOperator(
+            Criteria.where("state")
+                .is(MailScheduleState.IDLE)
+                .orOperator(
+                    Criteria.where("nextAttemptTime").lte(now),
+                    Criteria.where("nextAttemptTime").is(null)),
+            Criteria.where("state")
+                .is(MailScheduleState.SENDING)
+                .orOperator(
+                    Criteria.where("leaseExpireTime").lte(now),
+                    Criteria.where("leaseExpireTime").is(null)));
+  }
+
+  @Value
+  public static class ClaimPage {
+    List<MailServerPushScheduleEntity> scheduleEntities;
+    String cursor;
+  }
+
+  @Value
+  static class Pending {
+    MailServerPushScheduleEntity scheduleEntity;
+    MailServerPushEntity pushEntity;
+  }
+
+  @Value
+  static class Outcome {
+    List<Pending> pendings;
+    MailErrorCode errorCode;
+    long retryAfter; // 毫秒
+  }
+
+  @Value
+  static class Target {
+    String roleId;
+    Object route;
+  }
 }
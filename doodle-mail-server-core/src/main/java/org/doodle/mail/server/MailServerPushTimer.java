@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.doodle.design.mail.MailState;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class MailServerPushTimer implements SmartLifecycle {
+  ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+  MailServerTimerWheel timerWheel;
+  Map<String, MailServerPriority> priorities = new ConcurrentHashMap<>();
+  MongoTemplate mongoTemplate;
+  MailServerPushDispatcher pushDispatcher;
+  MailServerProperties properties;
+
+  @NonFinal Instant loadedUntil;
+
+  public MailServerPushTimer(
+      MongoTemplate mongoTemplate,
+      MailServerPushDispatcher pushDispatcher,
+      MailServerProperties properties) {
+    MailServerProperties.Push push = properties.getPush();
+    this.timerWheel =
+        new MailServerTimerWheel(
+            push.getTickDuration(),
+            push.getWheelSize(),
+            push.getWheelLevels(),
+            System.currentTimeMillis());
+    this.mongoTemplate = mongoTemplate;
+    this.pushDispatcher = pushDispatcher;
+    this.properties = properties;
+  }
+
+  public boolean schedule(String pushId, Instant dueTime, MailServerPriority priority) {
+    if (!timerWheel.schedule(pushId, dueTime.toEpochMilli())) {
+      return false;
+    }
+    priorities.put(pushId, priority);
+    return true;
+  }
+
+  public int getTimerSize() {
+    return timerWheel.size();
+  }
+
+  @Override
+  public void start() {
+    MailServerProperties.Push push = properties.getPush();
+    log.info(
+        "启动定时推送任务, 精度: {} 毫秒, 预加载: {} 秒", push.getTickDuration(), push.getDueHorizon());
+    executorService.scheduleWithFixedDelay(
+        () -> {
+          try {
+            load();
+          } catch (Exception e) {
+            log.error("加载定时推送邮件失败", e);
+          }
+        },
+        0,
+        push.getDueLoadInterval(),
+        TimeUnit.SECONDS);
+    executorService.scheduleAtFixedRate(
+        () -> {
+          try {
+            timerWheel
+                .advance(System.currentTimeMillis())
+                .forEach(
+                    pushId ->
+                        pushDispatcher.dispatch(
+                            pushId,
+                            MailServerPriority.orDefault(priorities.remove(pushId))));
+          } catch (Exception e) {
+            log.error("触发定时推送邮件失败", e);
+          }
+        },
+        push.getTickDuration(),
+        push.getTickDuration(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  void load() {
+    // 只加载时间轮跨度内的推送, 超出部分留给后续加载
+    long horizon = Math.min(properties.getPush().getDueHorizon() * 1000, timerWheel.getSpan());
+    Instant until = Instant.now().plusMillis(horizon);
+    Criteria criteria = Criteria.where("state").is(MailState.SCHEDULING).and("dueTime");
+    if (Objects.isNull(loadedUntil)) {
+      criteria.lte(until);
+    } else {
+      criteria.gt(loadedUntil).lte(until);
+    }
+    Query query = Query.query(criteria);
+    query.fields().include("_id", "dueTime", "priority");
+    List<MailServerPushEntity> pushEntities = mongoTemplate.find(query, MailServerPushEntity.class);
+    pushEntities.forEach(
+        pushEntity ->
+            schedule(
+                pushEntity.getPushId(),
+                pushEntity.getDueTime(),
+                MailServerPriority.orDefault(pushEntity.getPriority())));
+    loadedUntil = until;
+    if (!pushEntities.isEmpty()) {
+      log.info("加载定时推送邮件: {} 个, 截止: {}", pushEntities.size(), until);
+    }
+  }
+
+  @Override
+  public void stop() {
+    executorService.shutdownNow();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return false;
+  }
+}
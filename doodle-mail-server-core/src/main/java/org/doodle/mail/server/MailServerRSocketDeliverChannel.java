@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.doodle.broker.client.BrokerClientRSocketRequester;
+import org.doodle.design.broker.frame.BrokerFrameMimeTypes;
+import org.doodle.design.broker.frame.BrokerFrameUtils;
+import org.doodle.design.mail.MailDeliverOps;
+import org.doodle.design.mail.MailDeliverReply;
+import org.doodle.design.mail.MailDeliverRequest;
+import org.doodle.design.mail.MailErrorCode;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class MailServerRSocketDeliverChannel {
+  // 必须与客户端 MailClientRSocketController 的 DELIVER_STREAM_MAPPING 保持一致
+  public static final String DELIVER_STREAM_MAPPING =
+      MailDeliverOps.RSocket.DELIVER_MAPPING + ".stream";
+
+  Sinks.Many<MailDeliverRequest> requests = Sinks.many().unicast().onBackpressureBuffer();
+  // 客户端按请求顺序逐条应答, 应答与请求按先进先出对应
+  Queue<Ack> acks = new ArrayDeque<>();
+  // 待发送的请求, 与 acks 在同一把锁内入队, 在锁外按顺序发出
+  Queue<MailDeliverRequest> outbox = new ArrayDeque<>();
+  AtomicInteger wip = new AtomicInteger();
+  BrokerClientRSocketRequester requester;
+  Map<String, String> tags;
+  Consumer<MailServerRSocketDeliverChannel> onClose;
+
+  @NonFinal boolean closed;
+  @NonFinal int abandoned;
+  @NonFinal Disposable disposable;
+
+  public MailServerRSocketDeliverChannel(
+      BrokerClientRSocketRequester requester,
+      Map<String, String> tags,
+      Consumer<MailServerRSocketDeliverChannel> onClose) {
+    this.requester = requester;
+    this.tags = tags;
+    this.onClose = onClose;
+  }
+
+  public void start() {
+    this.disposable =
+        requester
+            .route(DELIVER_STREAM_MAPPING)
+            .metadata(BrokerFrameUtils.unicast(tags), BrokerFrameMimeTypes.BROKER_FRAME_MIME_TYPE)
+            .data(requests.asFlux(), MailDeliverRequest.class)
+            .retrieveFlux(MailDeliverReply.class)
+            .subscribe(
+                this::onReply,
+                this::close,
+                () -> close(new IllegalStateException("投递通道已关闭: " + tags)));
+  }
+
+  // 通道已关闭或未应答数量达到窗口时返回 null, 由调用方改用单次请求
+  public Mono<MailErrorCode> send(MailDeliverRequest request, int window) {
+    Ack ack = new Ack(window);
+    synchronized (this) {
+      if (closed || acks.size() - abandoned >= window) {
+        return null;
+      }
+      acks.offer(ack);
+      outbox.offer(request);
+    }
+    drain();
+    return ack.sink.asMono().doOnCancel(() -> abandon(ack));
+  }
+
+  public void dispose() {
+    close(new IllegalStateException("投递通道已关闭: " + tags));
+    if (Objects.nonNull(disposable)) {
+      disposable.dispose();
+    }
+  }
+
+  // 只有一个线程发送, 请求顺序与 acks 一致, 关闭时的完成信号也由同一线程发出
+  void drain() {
+    if (wip.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      for (; ; ) {
+        MailDeliverRequest request;
+        boolean done;
+        synchronized (this) {
+          request = outbox.poll();
+          done = closed;
+        }
+        if (Objects.isNull(request)) {
+          if (done) {
+            requests.tryEmitComplete();
+          }
+          break;
+        }
+        if (requests.tryEmitNext(request).isFailure()) {
+          close(new IllegalStateException("投递通道写入失败: " + tags));
+        }
+      }
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  // 调用方超时放弃等待后, 应答仍会按顺序到达, 此时只释放窗口
+  void abandon(Ack ack) {
+    boolean stalled;
+    synchronized (this) {
+      if (closed || ack.replied || ack.abandoned) {
+        return;
+      }
+      ack.abandoned = true;
+      abandoned++;
+      stalled = abandoned >= ack.window;
+    }
+    if (stalled) {
+      close(new IllegalStateException("投递通道长时间未应答: " + tags));
+    }
+  }
+
+  void onReply(MailDeliverReply reply) {
+    Ack ack;
+    synchronized (this) {
+      ack = acks.poll();
+      if (Objects.isNull(ack)) {
+        return;
+      }
+      ack.replied = true;
+      if (ack.abandoned) {
+        abandoned--;
+        return;
+      }
+    }
+    ack.sink.tryEmitValue(reply.getErrorCode());
+  }
+
+  void close(Throwable error) {
+    List<Ack> pending;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      pending = new ArrayList<>(acks);
+      acks.clear();
+      outbox.clear();
+      abandoned = 0;
+    }
+    log.warn("投递通道关闭: {}, 未应答 {} 条: {}", tags, pending.size(), error.toString());
+    drain();
+    pending.forEach(ack -> ack.sink.tryEmitError(error));
+    onClose.accept(this);
+  }
+
+  @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+  static class Ack {
+    Sinks.One<MailErrorCode> sink = Sinks.one();
+    int window;
+
+    // 由通道的锁保护
+    @NonFinal boolean replied;
+    @NonFinal boolean abandoned;
+
+    Ack(int window) {
+      this.window = window;
+    }
+  }
+}
@@ -15,22 +15,32 @@
  */
 package org.doodle.mail.server;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
 import org.doodle.broker.client.BrokerClientRSocketRequester;
 import org.doodle.design.broker.frame.BrokerFrame;
 import org.doodle.design.broker.frame.BrokerFrameMimeTypes;
 import org.doodle.design.broker.frame.BrokerFrameUtils;
 import org.doodle.design.mail.*;
+import reactor.core.publisher.Mono;
 
+@Slf4j
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @RequiredArgsConstructor
 public class MailServerRSocketDeliverHandler implements MailServerDeliverHandler {
+  ConcurrentMap<Map<String, String>, MailServerRSocketDeliverChannel> channels =
+      new ConcurrentHashMap<>();
   BrokerClientRSocketRequester requester;
   MailServerMapper mapper;
+  MailServerProperties properties;
 
   @Override
   public MailDeliverRoute.RouteMethodCase routeMethod() {
@@ -38,32 +48,76 @@ public class MailServerRSocketDeliverHandler implements MailServerDeliverHandler
   }
 
   @Override
-  public MailErrorCode deliver(
+  public Mono<MailErrorCode> deliver(
       String roleId, Object route, List<MailServerContentEntity> contentEntities) {
+    Map<String, String> tags = tags(route);
+    if (Objects.isNull(tags)) {
+      return Mono.just(MailErrorCode.FAILURE);
+    }
     MailDeliverRequest deliverRequest =
         MailDeliverRequest.newBuilder()
             .setRoleId(roleId)
             .setContent(mapper.toContentInfoList(contentEntities))
             .build();
-    BrokerFrame frame = frame(route);
-    if (Objects.isNull(frame)) {
-      return MailErrorCode.FAILURE;
+    return Mono.defer(() -> send(tags, deliverRequest))
+        .timeout(Duration.ofMillis(properties.getDeliver().getTimeout()))
+        .doOnError(e -> log.warn("给玩家 {} 投递邮件失败: {}", roleId, e.toString()));
+  }
+
+  Mono<MailErrorCode> send(Map<String, String> tags, MailDeliverRequest deliverRequest) {
+    MailServerProperties.Deliver deliver = properties.getDeliver();
+    if (deliver.isStream()) {
+      Mono<MailErrorCode> ack = channel(tags).send(deliverRequest, deliver.getStreamWindow());
+      if (Objects.nonNull(ack)) {
+        return ack;
+      }
     }
     return requester
         .route(MailDeliverOps.RSocket.DELIVER_MAPPING)
-        .metadata(frame, BrokerFrameMimeTypes.BROKER_FRAME_MIME_TYPE)
+        .metadata(BrokerFrameUtils.unicast(tags), BrokerFrameMimeTypes.BROKER_FRAME_MIME_TYPE)
         .data(deliverRequest)
         .retrieveMono(MailDeliverReply.class)
-        .map(MailDeliverReply::getErrorCode)
-        .blockOptional()
-        .orElse(MailErrorCode.FAILURE);
+        .map(MailDeliverReply::getErrorCode);
+  }
+
+  MailServerRSocketDeliverChannel channel(Map<String, String> tags) {
+    MailServerRSocketDeliverChannel channel = channels.get(tags);
+    if (Objects.nonNull(channel)) {
+      return channel;
+    }
+    Map<String, String> key = Map.copyOf(tags);
+    channel =
+        new MailServerRSocketDeliverChannel(
+            requester, key, (closed) -> channels.remove(key, closed));
+    MailServerRSocketDeliverChannel existing = channels.putIfAbsent(key, channel);
+    if (Objects.nonNull(existing)) {
+      return existing;
+    }
+    log.info("建立投递通道: {}", key);
+    channel.start();
+    return channel;
+  }
+
+  public void close() {
+    channels.values().forEach(MailServerRSocketDeliverChannel::dispose);
+    channels.clear();
+  }
+
+  @Override
+  public Object routeKey(Object route) {
+    return tags(route);
   }
 
   BrokerFrame frame(Object route) {
+    Map<String, String> tags = tags(route);
+    return Objects.nonNull(tags) ? BrokerFrameUtils.unicast(tags) : null;
+  }
+
+  Map<String, String> tags(Object route) {
     if (route instanceof MailDeliverRoute deliverRoute) {
-      return BrokerFrameUtils.unicast(deliverRoute.getRsocket().getTagsMap());
+      return deliverRoute.getRsocket().getTagsMap();
     } else if (route instanceof org.doodle.design.mail.model.info.MailDeliverRoute deliverRoute) {
-      return BrokerFrameUtils.unicast(deliverRoute.getRsocket().getTags());
+      return deliverRoute.getRsocket().getTags();
     }
     return null;
   }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import reactor.core.publisher.Mono;
+
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class MailServerRateLimiter {
+  ConcurrentMap<Object, Bucket> buckets = new ConcurrentHashMap<>();
+  AtomicLong throttledCount = new AtomicLong();
+  AtomicLong sweepTime;
+  LongSupplier clock; // 纳秒
+  MailServerProperties properties;
+
+  public MailServerRateLimiter(MailServerProperties properties) {
+    this(properties, System::nanoTime);
+  }
+
+  MailServerRateLimiter(MailServerProperties properties, LongSupplier clock) {
+    this.properties = properties;
+    this.clock = clock;
+    this.sweepTime = new AtomicLong(clock.getAsLong());
+  }
+
+  // 订阅时才预留令牌, 超出最长等待时间的请求交给调用方稍后重试
+  public Mono<Void> acquire(Object routeKey) {
+    return Mono.defer(
+        () -> {
+          long delay = reserve(routeKey);
+          if (delay == 0) {
+            return Mono.empty();
+          }
+          throttledCount.incrementAndGet();
+          if (delay < 0) {
+            return Mono.error(
+                new MailServerThrottledException(
+                    routeKey, Math.max(1, TimeUnit.NANOSECONDS.toMillis(-delay))));
+          }
+          return Mono.delay(Duration.ofNanos(delay)).then();
+        });
+  }
+
+  // 返回需要等待的纳秒数, 负数表示超出最长等待时间, 未预留令牌
+  long reserve(Object routeKey) {
+    Bucket bucket = buckets.get(routeKey);
+    if (Objects.isNull(bucket)) {
+      Object key = routeKey instanceof Map<?, ?> tags ? Map.copyOf(tags) : routeKey;
+      bucket = buckets.computeIfAbsent(key, this::createBucket);
+    }
+    long now = clock.getAsLong();
+    long maxWait = TimeUnit.MILLISECONDS.toNanos(properties.getDeliver().getRateMaxWait());
+    long delay = bucket.reserve(now, maxWait);
+    sweep(now);
+    return delay;
+  }
+
+  // 长时间未使用的令牌桶已经补满, 移除后再次使用时重建即可
+  void sweep(long now) {
+    long idleTime = TimeUnit.MILLISECONDS.toNanos(properties.getDeliver().getRateIdleTime());
+    long last = sweepTime.get();
+    if (now - last < idleTime || !sweepTime.compareAndSet(last, now)) {
+      return;
+    }
+    buckets.values().removeIf(bucket -> bucket.isIdle(now, idleTime));
+  }
+
+  public long getThrottledCount() {
+    return throttledCount.get();
+  }
+
+  public int getBucketSize() {
+    return buckets.size();
+  }
+
+  Bucket createBucket(Object routeKey) {
+    MailServerProperties.Deliver deliver = properties.getDeliver();
+    for (MailServerProperties.RateLimit rateLimit : deliver.getRateLimits()) {
+      if (matches(rateLimit, routeKey)) {
+        return new Bucket(rateLimit.getRate(), rateLimit.getBurst(), clock.getAsLong());
+      }
+    }
+    return new Bucket(deliver.getRateLimit(), deliver.getRateBurst(), clock.getAsLong());
+  }
+
+  boolean matches(MailServerProperties.RateLimit rateLimit, Object routeKey) {
+    if (Objects.nonNull(rateLimit.getHost())) {
+      return rateLimit.getHost().equalsIgnoreCase(String.valueOf(routeKey));
+    }
+    return routeKey instanceof Map<?, ?> tags
+        && tags.entrySet().containsAll(rateLimit.getTags().entrySet());
+  }
+
+  @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+  static class Bucket {
+    double rate; // 每秒
+    double burst;
+
+    @NonFinal double tokens;
+    @NonFinal long lastTime;
+
+    Bucket(double rate, int burst, long now) {
+      this.rate = rate;
+      this.burst = Math.max(1, burst);
+      this.tokens = this.burst;
+      this.lastTime = now;
+    }
+
+    // 允许令牌预支为负数, 但等待时间不超过 maxWait
+    synchronized long reserve(long now, long maxWait) {
+      if (rate <= 0) {
+        return 0;
+      }
+      refill(now);
+      long delay = tokens >= 1 ? 0 : (long) ((1 - tokens) / rate * 1e9);
+      if (delay > maxWait) {
+        return -delay;
+      }
+      tokens -= 1;
+      return delay;
+    }
+
+    synchronized boolean isIdle(long now, long idleTime) {
+      return now - lastTime >= idleTime
+          && (rate <= 0 || tokens + (now - lastTime) * rate / 1e9 >= burst);
+    }
+
+    void refill(long now) {
+      tokens = Math.min(burst, tokens + (now - lastTime) * rate / 1e9);
+      lastTime = now;
+    }
+  }
+}
@@ -15,22 +15,192 @@
  */
 package org.doodle.mail.server;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import lombok.AccessLevel;
-import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
 
+@Slf4j
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
-@RequiredArgsConstructor
-public class MailServerRoleService {
-  MailServerRoleSyncRepo roleSyncRepo;
+public class MailServerRoleService implements SmartLifecycle {
+  ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+  AtomicBoolean running = new AtomicBoolean();
+  AtomicBoolean flushing = new AtomicBoolean();
+  ConcurrentMap<String, Long> dirtySyncIds = new ConcurrentHashMap<>();
+  ConcurrentMap<String, Long> flushingSyncIds = new ConcurrentHashMap<>();
+  MongoTemplate mongoTemplate;
+  ReactiveMongoTemplate reactiveMongoTemplate;
+  MailServerProperties properties;
 
-  public MailServerRoleSyncEntity findOrElseCreate(String roleId) {
-    return roleSyncRepo
-        .findById(roleId)
-        .orElseGet(() -> MailServerRoleSyncEntity.builder().roleId(roleId).build());
+  public MailServerRoleService(
+      MongoTemplate mongoTemplate,
+      ReactiveMongoTemplate reactiveMongoTemplate,
+      MailServerProperties properties) {
+    this.mongoTemplate = mongoTemplate;
+    this.reactiveMongoTemplate = reactiveMongoTemplate;
+    this.properties = properties;
+  }
+
+  public Mono<Map<String, MailServerRoleSyncEntity>> findAllOrElseCreate(
+      Collection<String> roleIds) {
+    // 其他节点也会推进同一玩家的进度, 以库中的值为准, 叠加本节点尚未落库的进度.
+    // 先取未落库的进度再查库, 落库中途完成的进度总能在其中一处读到
+    Map<String, Long> unsaved = new HashMap<>();
+    for (String roleId : roleIds) {
+      long syncId =
+          Math.max(
+              dirtySyncIds.getOrDefault(roleId, 0L), flushingSyncIds.getOrDefault(roleId, 0L));
+      if (syncId > 0) {
+        unsaved.put(roleId, syncId);
+      }
+    }
+    Query query = Query.query(Criteria.where("_id").in(roleIds));
+    query.fields().include("syncId");
+    return reactiveMongoTemplate
+        .find(query, MailServerRoleSyncEntity.class)
+        .collectMap(MailServerRoleSyncEntity::getRoleId, MailServerRoleSyncEntity::getSyncId)
+        .map(
+            saved -> {
+              Map<String, MailServerRoleSyncEntity> roleSyncEntities = new HashMap<>();
+              for (String roleId : roleIds) {
+                long syncId =
+                    Math.max(saved.getOrDefault(roleId, 0L), unsaved.getOrDefault(roleId, 0L));
+                roleSyncEntities.put(roleId, create(roleId, syncId));
+              }
+              return roleSyncEntities;
+            });
+  }
+
+  MailServerRoleSyncEntity create(String roleId, long syncId) {
+    return MailServerRoleSyncEntity.builder().roleId(roleId).syncId(syncId).build();
   }
 
   public void save(MailServerRoleSyncEntity roleSyncEntity) {
-    roleSyncRepo.save(roleSyncEntity);
+    dirtySyncIds.merge(roleSyncEntity.getRoleId(), roleSyncEntity.getSyncId(), Math::max);
+    if (!running.get()) {
+      // 未启动或已停止时没有后台落库任务, 直接写入
+      flush();
+      return;
+    }
+    if (dirtySyncIds.size() >= properties.getRole().getMaxDirtySize()) {
+      // 缓冲已满时在调用方线程同步落库, 写入速度受落库速度限制
+      flush();
+      return;
+    }
+    if (dirtySyncIds.size() >= properties.getRole().getFlushSize()
+        && flushing.compareAndSet(false, true)) {
+      try {
+        executorService.execute(
+            () -> {
+              try {
+                flush();
+              } finally {
+                flushing.set(false);
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        flushing.set(false);
+        flush();
+      }
+    }
+  }
+
+  public synchronized void flush() {
+    if (dirtySyncIds.isEmpty()) {
+      return;
+    }
+    Map<String, Long> batch = new HashMap<>();
+    for (String roleId : dirtySyncIds.keySet()) {
+      Long syncId = dirtySyncIds.get(roleId);
+      if (Objects.nonNull(syncId)) {
+        // 先登记为落库中再移出, 保证查询期间进度始终可见
+        flushingSyncIds.put(roleId, syncId);
+        dirtySyncIds.remove(roleId, syncId);
+        batch.put(roleId, syncId);
+      }
+    }
+    BulkOperations bulkOps =
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MailServerRoleSyncEntity.class);
+    batch.forEach(
+        (roleId, syncId) ->
+            bulkOps.upsert(
+                Query.query(Criteria.where("_id").is(roleId)), new Update().max("syncId", syncId)));
+    try {
+      bulkOps.execute();
+    } catch (Exception e) {
+      log.error("批量保存玩家全服邮件同步进度失败, 数量: {}", batch.size(), e);
+      restore(batch);
+    } finally {
+      batch.forEach(flushingSyncIds::remove);
+    }
+  }
+
+  // 落库失败的进度放回缓冲, 超出上限的部分丢弃, 这些玩家下次同步时可能重复收到全服邮件
+  void restore(Map<String, Long> batch) {
+    int maxDirtySize = properties.getRole().getMaxDirtySize();
+    int dropped = 0;
+    for (Map.Entry<String, Long> entry : batch.entrySet()) {
+      if (dirtySyncIds.size() < maxDirtySize || dirtySyncIds.containsKey(entry.getKey())) {
+        dirtySyncIds.merge(entry.getKey(), entry.getValue(), Math::max);
+      } else {
+        dropped++;
+      }
+    }
+    if (dropped > 0) {
+      log.error("玩家全服邮件同步进度缓冲已满, 丢弃 {} 个未落库的进度", dropped);
+    }
+  }
+
+  public int getDirtySize() {
+    return dirtySyncIds.size();
+  }
+
+  @Override
+  public void start() {
+    if (running.compareAndSet(false, true)) {
+      long flushInterval = properties.getRole().getFlushInterval();
+      executorService.scheduleWithFixedDelay(
+          () -> {
+            try {
+              flush();
+            } catch (Exception e) {
+              log.error("定时保存玩家全服邮件同步进度失败", e);
+            }
+          },
+          flushInterval,
+          flushInterval,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (running.compareAndSet(true, false)) {
+      executorService.shutdownNow();
+      flush();
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running.get();
   }
 }
@@ -19,6 +19,7 @@ import java.util.Objects;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
@@ -30,14 +31,32 @@ import org.springframework.data.mongodb.core.query.Update;
 public abstract class MailServerSeqService {
   MongoTemplate mongoTemplate;
   String seqName;
+  long blockSize;
+  long blockTimeout; // 毫秒, 0 表示不过期
 
-  public long generateSeq() {
-    MailServerSeqEntity seqEntity =
-        mongoTemplate.findAndModify(
-            Query.query(Criteria.where("_id").is(seqName)),
-            new Update().inc("seq", 1),
-            FindAndModifyOptions.options().returnNew(true).upsert(true),
-            MailServerSeqEntity.class);
-    return Objects.nonNull(seqEntity) ? seqEntity.getSeq() : 1;
+  @NonFinal long nextSeq = 1;
+  @NonFinal long maxSeq;
+  @NonFinal long blockTime;
+
+  protected MailServerSeqService(MongoTemplate mongoTemplate, String seqName) {
+    this(mongoTemplate, seqName, 1, 0);
+  }
+
+  // 每次预留一段编号在本地分配, 多节点时各自的编号段交错提交, 超过有效期的剩余编号直接丢弃
+  public synchronized long generateSeq() {
+    long now = System.currentTimeMillis();
+    if (nextSeq > maxSeq || (blockTimeout > 0 && now - blockTime >= blockTimeout)) {
+      long size = Math.max(1, blockSize);
+      MailServerSeqEntity seqEntity =
+          mongoTemplate.findAndModify(
+              Query.query(Criteria.where("_id").is(seqName)),
+              new Update().inc("seq", size),
+              FindAndModifyOptions.options().returnNew(true).upsert(true),
+              MailServerSeqEntity.class);
+      maxSeq = Objects.nonNull(seqEntity) ? seqEntity.getSeq() : size;
+      nextSeq = maxSeq - size + 1;
+      blockTime = now;
+    }
+    return nextSeq++;
   }
 }
@@ -15,10 +15,186 @@
  */
 package org.doodle.mail.server;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.doodle.design.common.Result;
+import org.doodle.design.mail.MailDeliverOps;
+import org.doodle.design.mail.MailDeliverRoute;
+import org.doodle.design.mail.MailErrorCode;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class MailServerServletDeliverHandler implements MailServerDeliverHandler {
+  ConcurrentMap<String, HostLimiter> hostLimiters = new ConcurrentHashMap<>();
+  HttpClient httpClient;
+  ObjectMapper objectMapper;
+  MailServerMapper mapper;
+  MailServerProperties properties;
+
+  public MailServerServletDeliverHandler(
+      ObjectMapper objectMapper, MailServerMapper mapper, MailServerProperties properties) {
+    // HTTP/2 下同一主机的请求复用一个连接, HTTP/1.1 下连接由客户端连接池保持
+    this.httpClient =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(properties.getDeliver().getServletConnectTimeout()))
+            .build();
+    this.objectMapper = objectMapper;
+    this.mapper = mapper;
+    this.properties = properties;
+  }
+
+  @Override
+  public MailDeliverRoute.RouteMethodCase routeMethod() {
+    return MailDeliverRoute.RouteMethodCase.SERVLET;
+  }
 
   @Override
-  public org.doodle.design.mail.MailDeliverRoute.RouteMethodCase routeMethod() {
-    return org.doodle.design.mail.MailDeliverRoute.RouteMethodCase.SERVLET;
+  public Mono<MailErrorCode> deliver(
+      String roleId, Object route, List<MailServerContentEntity> contentEntities) {
+    URI uri = uri(route);
+    if (Objects.isNull(uri)) {
+      return Mono.just(MailErrorCode.FAILURE);
+    }
+    byte[] body;
+    try {
+      body = objectMapper.writeValueAsBytes(mapper.toDeliverRequest(roleId, contentEntities));
+    } catch (Exception e) {
+      log.error("给玩家 {} 编码投递请求失败", roleId, e);
+      return Mono.just(MailErrorCode.FAILURE);
+    }
+    HttpRequest request =
+        HttpRequest.newBuilder(uri)
+            .timeout(Duration.ofMillis(properties.getDeliver().getTimeout()))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+            .build();
+    HostLimiter hostLimiter =
+        hostLimiters.computeIfAbsent(
+            uri.getAuthority(),
+            (k) -> new HostLimiter(properties.getDeliver().getServletMaxConnectionsPerHost()));
+    // 超时包含排队等待连接许可的时间
+    return hostLimiter
+        .limit(
+            Mono.fromFuture(
+                    () -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()))
+                .map(this::toErrorCode))
+        .timeout(Duration.ofMillis(properties.getDeliver().getTimeout()))
+        .doOnError(e -> log.warn("给玩家 {} 投递邮件失败: {}", roleId, e.toString()));
+  }
+
+  @Override
+  public Object routeKey(Object route) {
+    URI uri = uri(route);
+    return Objects.nonNull(uri) ? uri.getAuthority() : null;
+  }
+
+  MailErrorCode toErrorCode(HttpResponse<byte[]> response) {
+    if (response.statusCode() / 100 != 2) {
+      throw new IllegalStateException("投递请求返回状态码: " + response.statusCode());
+    }
+    try {
+      Result<MailErrorCode> result =
+          objectMapper.readValue(response.body(), new TypeReference<>() {});
+      return Objects.nonNull(result.getData()) ? result.getData() : MailErrorCode.FAILURE;
+    } catch (Exception e) {
+      throw new IllegalStateException("投递应答解析失败", e);
+    }
+  }
+
+  URI uri(Object route) {
+    String url = null;
+    if (route instanceof MailDeliverRoute deliverRoute && deliverRoute.hasServlet()) {
+      url = deliverRoute.getServlet().getUrl();
+    } else if (route instanceof org.doodle.design.mail.model.info.MailDeliverRoute deliverRoute
+        && Objects.nonNull(deliverRoute.getServlet())) {
+      url = deliverRoute.getServlet().getUrl();
+    }
+    if (Objects.isNull(url) || url.isEmpty()) {
+      return null;
+    }
+    try {
+      return URI.create(url).resolve(MailDeliverOps.Servlet.DELIVER_MAPPING);
+    } catch (IllegalArgumentException e) {
+      log.warn("投递地址无效: {}", url);
+      return null;
+    }
+  }
+
+  // 按主机限制并发请求数, 超出时排队等待而不是失败
+  @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+  static class HostLimiter {
+    Queue<Sinks.One<Void>> waiters = new ArrayDeque<>();
+    int limit;
+
+    @NonFinal int active;
+
+    HostLimiter(int limit) {
+      this.limit = limit;
+    }
+
+    <T> Mono<T> limit(Mono<T> mono) {
+      return Mono.defer(() -> acquire().then(mono.doFinally(signal -> release())));
+    }
+
+    synchronized int getActive() {
+      return active;
+    }
+
+    synchronized int getWaiting() {
+      return waiters.size();
+    }
+
+    Mono<Void> acquire() {
+      synchronized (this) {
+        if (active < limit) {
+          active++;
+          return Mono.empty();
+        }
+        Sinks.One<Void> waiter = Sinks.one();
+        waiters.offer(waiter);
+        return waiter.asMono().doOnCancel(() -> cancel(waiter));
+      }
+    }
+
+    void release() {
+      Sinks.One<Void> waiter;
+      synchronized (this) {
+        waiter = waiters.poll();
+        if (Objects.isNull(waiter)) {
+          active--;
+          return;
+        }
+      }
+      // 许可直接转交给下一个等待者
+      waiter.tryEmitEmpty();
+    }
+
+    void cancel(Sinks.One<Void> waiter) {
+      synchronized (this) {
+        if (waiters.remove(waiter)) {
+          return;
+        }
+      }
+      // 取消前已经拿到许可, 归还给其他等待者
+      release();
+    }
   }
 }
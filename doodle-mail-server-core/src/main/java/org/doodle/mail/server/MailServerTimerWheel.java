@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class MailServerTimerWheel {
+  long tickDuration; // 毫秒
+  int wheelSize;
+  List<List<Map<String, Long>>> levels = new ArrayList<>();
+  Map<String, Long> deadlines = new HashMap<>();
+
+  @NonFinal long currentTick;
+
+  public MailServerTimerWheel(long tickDuration, int wheelSize, int levelNum, long startTime) {
+    this.tickDuration = tickDuration;
+    this.wheelSize = wheelSize;
+    for (int i = 0; i < levelNum; i++) {
+      List<Map<String, Long>> slots = new ArrayList<>(wheelSize);
+      for (int j = 0; j < wheelSize; j++) {
+        slots.add(new HashMap<>());
+      }
+      levels.add(slots);
+    }
+    this.currentTick = startTime / tickDuration;
+  }
+
+  public long getSpan() {
+    return (pow(levels.size()) - 1) * tickDuration;
+  }
+
+  public synchronized int size() {
+    return deadlines.size();
+  }
+
+  public synchronized boolean schedule(String id, long deadline) {
+    // 向上取整, 保证触发时已到达截止时间
+    long tick = Math.max((deadline + tickDuration - 1) / tickDuration, currentTick + 1);
+    if (Objects.equals(deadlines.get(id), tick)) {
+      return true;
+    }
+    if (tick - currentTick >= pow(levels.size())) {
+      return false;
+    }
+    deadlines.put(id, tick);
+    place(id, tick);
+    return true;
+  }
+
+  public synchronized void cancel(String id) {
+    deadlines.remove(id);
+  }
+
+  public synchronized List<String> advance(long now) {
+    List<String> expired = new ArrayList<>();
+    long targetTick = now / tickDuration;
+    while (currentTick < targetTick) {
+      currentTick++;
+      for (int i = levels.size() - 1; i > 0; i--) {
+        long period = pow(i);
+        if (currentTick % period == 0) {
+          Map<String, Long> slot = levels.get(i).get((int) ((currentTick / period) % wheelSize));
+          List<Map.Entry<String, Long>> entries = new ArrayList<>(slot.entrySet());
+          slot.clear();
+          for (Map.Entry<String, Long> entry : entries) {
+            if (!Objects.equals(deadlines.get(entry.getKey()), entry.getValue())) {
+              continue;
+            }
+            if (entry.getValue() <= currentTick) {
+              deadlines.remove(entry.getKey());
+              expired.add(entry.getKey());
+            } else {
+              place(entry.getKey(), entry.getValue());
+            }
+          }
+        }
+      }
+      Map<String, Long> slot = levels.get(0).get((int) (currentTick % wheelSize));
+      for (Map.Entry<String, Long> entry : slot.entrySet()) {
+        if (Objects.equals(deadlines.get(entry.getKey()), entry.getValue())) {
+          deadlines.remove(entry.getKey());
+          expired.add(entry.getKey());
+        }
+      }
+      slot.clear();
+    }
+    return expired;
+  }
+
+  private void place(String id, long tick) {
+    long delta = tick - currentTick;
+    int level = 0;
+    while (delta >= pow(level + 1)) {
+      level++;
+    }
+    long period = pow(level);
+    levels.get(level).get((int) ((tick / period) % wheelSize)).put(id, tick);
+  }
+
+  private long pow(int level) {
+    long value = 1;
+    for (int i = 0; i < level; i++) {
+      value *= wheelSize;
+    }
+    return value;
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MailServerCircuitBreakerTest {
+  AtomicLong now = new AtomicLong(1000);
+  MailServerProperties properties = new MailServerProperties();
+  MailServerCircuitBreaker circuitBreaker = new MailServerCircuitBreaker(properties, now::get);
+
+  @BeforeEach
+  void setUp() {
+    properties.getDeliver().setBreakerFailureThreshold(3);
+    properties.getDeliver().setBreakerOpenTime(1000);
+    properties.getDeliver().setBreakerIdleTime(5000);
+  }
+
+  void open(String routeKey) {
+    for (int i = 0; i < 3; i++) {
+      circuitBreaker.onFailure(routeKey);
+    }
+  }
+
+  @Test
+  void shouldOpenAfterConsecutiveFailures() {
+    circuitBreaker.onFailure("a");
+    circuitBreaker.onFailure("a");
+    assertThat(circuitBreaker.tryAcquire("a")).isZero();
+
+    circuitBreaker.onFailure("a");
+
+    assertThat(circuitBreaker.tryAcquire("a")).isEqualTo(1000);
+    now.addAndGet(400);
+    assertThat(circuitBreaker.tryAcquire("a")).isEqualTo(600);
+    assertThat(circuitBreaker.tryAcquire("b")).isZero();
+    assertThat(circuitBreaker.getOpenCount()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldResetFailuresOnSuccess() {
+    circuitBreaker.onFailure("a");
+    circuitBreaker.onFailure("a");
+    circuitBreaker.onSuccess("a");
+    circuitBreaker.onFailure("a");
+    circuitBreaker.onFailure("a");
+
+    assertThat(circuitBreaker.tryAcquire("a")).isZero();
+  }
+
+  @Test
+  void shouldAllowSingleProbeAfterOpenTime() {
+    open("a");
+    now.addAndGet(1000);
+
+    assertThat(circuitBreaker.tryAcquire("a")).isZero();
+    assertThat(circuitBreaker.tryAcquire("a")).isEqualTo(1000);
+  }
+
+  @Test
+  void shouldCloseOnProbeSuccess() {
+    open("a");
+    now.addAndGet(1000);
+    circuitBreaker.tryAcquire("a");
+
+    circuitBreaker.onSuccess("a");
+
+    assertThat(circuitBreaker.tryAcquire("a")).isZero();
+    assertThat(circuitBreaker.tryAcquire("a")).isZero();
+    assertThat(circuitBreaker.getOpenCount()).isZero();
+  }
+
+  @Test
+  void shouldReopenOnProbeFailure() {
+    open("a");
+    now.addAndGet(1000);
+    circuitBreaker.tryAcquire("a");
+
+    circuitBreaker.onFailure("a");
+
+    assertThat(circuitBreaker.tryAcquire("a")).isEqualTo(1000);
+    now.addAndGet(1000);
+    assertThat(circuitBreaker.tryAcquire("a")).isZero();
+  }
+
+  @Test
+  void shouldReturnProbeOnRelease() {
+    open("a");
+    now.addAndGet(1000);
+    circuitBreaker.tryAcquire("a");
+
+    circuitBreaker.release("a");
+
+    assertThat(circuitBreaker.getOpenCount()).isEqualTo(1);
+    assertThat(circuitBreaker.tryAcquire("a")).isZero();
+    assertThat(circuitBreaker.tryAcquire("a")).isEqualTo(1000);
+  }
+
+  @Test
+  void shouldNotCountReleaseAsFailure() {
+    circuitBreaker.onFailure("a");
+    circuitBreaker.onFailure("a");
+    circuitBreaker.release("a");
+    circuitBreaker.release("a");
+
+    assertThat(circuitBreaker.tryAcquire("a")).isZero();
+  }
+
+  @Test
+  void shouldEvictIdleClosedCircuits() {
+    circuitBreaker.tryAcquire("a");
+    circuitBreaker.onSuccess("a");
+    open("b");
+    circuitBreaker.onFailure("c");
+    assertThat(circuitBreaker.getCircuitSize()).isEqualTo(3);
+
+    now.addAndGet(5000);
+    circuitBreaker.tryAcquire("d");
+
+    assertThat(circuitBreaker.getCircuitSize()).isEqualTo(3);
+    assertThat(circuitBreaker.getOpenCount()).isEqualTo(1);
+    assertThat(circuitBreaker.tryAcquire("a")).isZero();
+    assertThat(circuitBreaker.getCircuitSize()).isEqualTo(4);
+  }
+}
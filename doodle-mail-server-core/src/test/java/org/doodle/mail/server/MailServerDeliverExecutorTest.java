@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class MailServerDeliverExecutorTest {
+  MailServerDeliverExecutor executor =
+      new MailServerDeliverExecutor(
+          "test", 1, 10, MailServerDeliverExecutor.RejectPolicy.ABORT, false, 1);
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdown();
+  }
+
+  void awaitActive(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 1000;
+    while (executor.getActiveCount() != count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(executor.getActiveCount()).isEqualTo(count);
+  }
+
+  @Test
+  void shouldHoldPermitUntilDeliveryTerminates() throws Exception {
+    Sinks.One<String> first = Sinks.one();
+    executor.submit(MailServerPriority.NORMAL, first.asMono()).subscribe();
+    awaitActive(1);
+
+    CompletableFuture<String> second =
+        executor.submit(MailServerPriority.NORMAL, Mono.just("second")).toFuture();
+    Thread.sleep(100);
+    assertThat(second).isNotDone();
+    assertThat(executor.getQueueSize()).isEqualTo(1);
+
+    first.tryEmitValue("first");
+    assertThat(second.get(1, TimeUnit.SECONDS)).isEqualTo("second");
+    awaitActive(0);
+  }
+
+  @Test
+  void shouldReleasePermitWhenCancelled() throws Exception {
+    Disposable first = executor.submit(MailServerPriority.NORMAL, Mono.never()).subscribe();
+    awaitActive(1);
+
+    CompletableFuture<String> second =
+        executor.submit(MailServerPriority.NORMAL, Mono.just("second")).toFuture();
+    first.dispose();
+    assertThat(second.get(1, TimeUnit.SECONDS)).isEqualTo("second");
+  }
+
+  @Test
+  void shouldRejectQueuedDeliveriesOnShutdown() throws Exception {
+    executor.submit(MailServerPriority.NORMAL, Mono.never()).subscribe();
+    awaitActive(1);
+
+    CompletableFuture<String> queued =
+        executor.submit(MailServerPriority.NORMAL, Mono.just("queued")).toFuture();
+    executor.shutdown();
+
+    assertThatThrownBy(() -> queued.get(1, TimeUnit.SECONDS))
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(RejectedExecutionException.class);
+  }
+
+  @Test
+  void shouldSignalRejectionWhenQueueIsFull() throws Exception {
+    executor.submit(MailServerPriority.NORMAL, Mono.never()).subscribe();
+    awaitActive(1);
+    for (int i = 0; i < 10; i++) {
+      executor.submit(MailServerPriority.NORMAL, Mono.never()).subscribe();
+    }
+
+    assertThatThrownBy(() -> executor.submit(MailServerPriority.NORMAL, Mono.just("x")).block())
+        .isInstanceOf(RejectedExecutionException.class);
+    assertThat(executor.getRejectedCount()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldAdmitHighPriorityWhileLowSaturatesQueue() throws Exception {
+    executor.submit(MailServerPriority.LOW, Mono.never()).subscribe();
+    awaitActive(1);
+    List<CompletableFuture<Object>> low = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      low.add(executor.submit(MailServerPriority.LOW, Mono.never()).toFuture());
+    }
+
+    CompletableFuture<String> high =
+        executor.submit(MailServerPriority.HIGH, Mono.just("high")).toFuture();
+
+    assertThat(high).isNotDone();
+    assertThat(executor.getQueueSize(MailServerPriority.HIGH)).isEqualTo(1);
+    assertThat(executor.getQueueSize(MailServerPriority.LOW)).isEqualTo(9);
+    assertThatThrownBy(() -> low.get(9).get(1, TimeUnit.SECONDS))
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(RejectedExecutionException.class);
+    assertThat(low.subList(0, 9)).noneMatch(CompletableFuture::isDone);
+  }
+}
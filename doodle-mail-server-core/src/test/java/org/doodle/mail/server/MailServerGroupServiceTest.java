@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.doodle.design.mail.MailErrorCode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import reactor.core.publisher.Mono;
+
+class MailServerGroupServiceTest {
+  static final MailErrorCode SUCCESS =
+      Arrays.stream(MailErrorCode.values())
+          .filter(errorCode -> errorCode != MailErrorCode.FAILURE)
+          .findFirst()
+          .orElseThrow();
+
+  MailServerGroupCatalog groupCatalog = mock(MailServerGroupCatalog.class);
+  MailServerRoleService roleService = mock(MailServerRoleService.class);
+  MailServerContentService contentService = mock(MailServerContentService.class);
+  MailServerDeliverService deliverService = mock(MailServerDeliverService.class);
+  MailServerProperties properties = new MailServerProperties();
+  MailServerDeliverExecutor executor =
+      new MailServerDeliverExecutor(
+          "test", 1, 100, MailServerDeliverExecutor.RejectPolicy.ABORT, false, 1);
+  MailServerGroupService groupService =
+      new MailServerGroupService(
+          mock(MongoTemplate.class),
+          groupCatalog,
+          roleService,
+          contentService,
+          deliverService,
+          executor,
+          properties);
+
+  @BeforeEach
+  void setUp() {
+    when(roleService.findAllOrElseCreate(any()))
+        .thenReturn(
+            Mono.fromSupplier(
+                () ->
+                    Map.of(
+                        "role-1",
+                        MailServerRoleSyncEntity.builder().roleId("role-1").syncId(0).build())));
+    when(groupCatalog.findAllToSync(anyLong(), anyLong()))
+        .thenReturn(Mono.just(List.of(group(1), group(2))));
+    when(contentService.findAllByIdMono(any()))
+        .thenReturn(
+            Mono.just(
+                List.of(
+                    MailServerContentEntity.builder().contentId("content").title("t").build())));
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdown();
+  }
+
+  MailServerGroupCatalog.Item group(long groupId) {
+    return new MailServerGroupCatalog.Item(
+        MailServerGroupEntity.builder()
+            .groupId(groupId)
+            .contentId("content")
+            .createTime(10)
+            .build());
+  }
+
+  @Test
+  void shouldAdvanceSyncIdAfterDelivery() {
+    when(deliverService.deliver(eq("role-1"), any(), anyList())).thenReturn(Mono.just(SUCCESS));
+
+    groupService.sync("role-1", 0, "route");
+
+    ArgumentCaptor<MailServerRoleSyncEntity> saved =
+        ArgumentCaptor.forClass(MailServerRoleSyncEntity.class);
+    verify(roleService, timeout(1000)).save(saved.capture());
+    assertThat(saved.getValue().getSyncId()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldKeepSyncIdWhenThrottled() {
+    when(deliverService.deliver(eq("role-1"), any(), anyList()))
+        .thenReturn(Mono.error(new MailServerThrottledException("route", 100)));
+
+    groupService.sync("role-1", 0, "route");
+
+    verify(deliverService, timeout(1000)).deliver(eq("role-1"), any(), anyList());
+    verify(roleService, after(200).never()).save(any());
+  }
+
+  @Test
+  void shouldKeepSyncIdWhenDeliveryFails() {
+    when(deliverService.deliver(eq("role-1"), any(), anyList()))
+        .thenReturn(Mono.just(MailErrorCode.FAILURE));
+
+    groupService.sync("role-1", 0, "route");
+
+    verify(deliverService, timeout(1000)).deliver(eq("role-1"), any(), anyList());
+    verify(roleService, after(200).never()).save(any());
+  }
+
+  @Test
+  void shouldSkipGroupsCreatedBeforeRole() {
+    groupService.sync("role-1", 10, "route");
+
+    verify(contentService, after(200).never()).findAllByIdMono(any());
+    verify(deliverService, never()).deliver(any(), any(), anyList());
+  }
+}
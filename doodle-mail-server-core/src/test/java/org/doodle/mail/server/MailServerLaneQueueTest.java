@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class MailServerLaneQueueTest {
+  List<Runnable> displaced = new ArrayList<>();
+
+  MailServerLaneQueue queue(int capacity) {
+    return new MailServerLaneQueue(capacity, displaced::add);
+  }
+
+  static Task task(MailServerPriority priority) {
+    return new Task(priority);
+  }
+
+  static MailServerPriority priority(Runnable task) {
+    return ((Task) task).priority;
+  }
+
+  @Test
+  void shouldTakeLanesByWeight() throws InterruptedException {
+    MailServerLaneQueue queue = queue(1000);
+    for (MailServerPriority priority : MailServerPriority.values()) {
+      for (int i = 0; i < 100; i++) {
+        queue.offer(priority, task(priority));
+      }
+    }
+
+    Map<MailServerPriority, Integer> taken = new EnumMap<>(MailServerPriority.class);
+    for (int i = 0; i < 13 * 5; i++) {
+      taken.merge(priority(queue.take()), 1, Integer::sum);
+    }
+
+    assertThat(taken)
+        .containsEntry(MailServerPriority.HIGH, 40)
+        .containsEntry(MailServerPriority.NORMAL, 20)
+        .containsEntry(MailServerPriority.LOW, 5);
+  }
+
+  @Test
+  void shouldSkipEmptyLanes() throws InterruptedException {
+    MailServerLaneQueue queue = queue(10);
+    queue.offer(MailServerPriority.LOW, task(MailServerPriority.LOW));
+    queue.offer(MailServerPriority.LOW, task(MailServerPriority.LOW));
+
+    assertThat(priority(queue.take())).isEqualTo(MailServerPriority.LOW);
+    assertThat(priority(queue.take())).isEqualTo(MailServerPriority.LOW);
+    assertThat(queue.size()).isZero();
+  }
+
+  @Test
+  void shouldKeepFifoOrderWithinLane() throws InterruptedException {
+    MailServerLaneQueue queue = queue(10);
+    List<Runnable> tasks = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      Runnable task = task(MailServerPriority.NORMAL);
+      tasks.add(task);
+      queue.offer(MailServerPriority.NORMAL, task);
+    }
+
+    List<Runnable> taken = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      taken.add(queue.take());
+    }
+    assertThat(taken).containsExactlyElementsOf(tasks);
+  }
+
+  @Test
+  void shouldBoundAllLanesTogether() throws InterruptedException {
+    MailServerLaneQueue queue = queue(3);
+    assertThat(queue.offer(MailServerPriority.HIGH, task(MailServerPriority.HIGH))).isTrue();
+    assertThat(queue.offer(MailServerPriority.NORMAL, task(MailServerPriority.NORMAL))).isTrue();
+    assertThat(queue.offer(MailServerPriority.LOW, task(MailServerPriority.LOW))).isTrue();
+
+    assertThat(queue.offer(MailServerPriority.LOW, task(MailServerPriority.LOW))).isFalse();
+    assertThat(queue.size()).isEqualTo(3);
+    assertThat(queue.remainingCapacity()).isZero();
+
+    queue.take();
+    assertThat(queue.remainingCapacity()).isEqualTo(1);
+    assertThat(queue.offer(MailServerPriority.LOW, task(MailServerPriority.LOW))).isTrue();
+  }
+
+  @Test
+  void shouldDisplaceLowerLanesWhenFull() throws InterruptedException {
+    MailServerLaneQueue queue = queue(3);
+    Runnable oldest = task(MailServerPriority.LOW);
+    Runnable newest = task(MailServerPriority.LOW);
+    queue.offer(MailServerPriority.LOW, oldest);
+    queue.offer(MailServerPriority.LOW, task(MailServerPriority.LOW));
+    queue.offer(MailServerPriority.LOW, newest);
+
+    assertThat(queue.offer(MailServerPriority.HIGH, task(MailServerPriority.HIGH))).isTrue();
+    assertThat(displaced).containsExactly(newest);
+    assertThat(queue.size()).isEqualTo(3);
+    assertThat(queue.size(MailServerPriority.LOW)).isEqualTo(2);
+    assertThat(priority(queue.take())).isEqualTo(MailServerPriority.HIGH);
+    assertThat(queue.take()).isSameAs(oldest);
+  }
+
+  @Test
+  void shouldNotDisplaceSameOrHigherLanes() {
+    MailServerLaneQueue queue = queue(2);
+    queue.offer(MailServerPriority.HIGH, task(MailServerPriority.HIGH));
+    queue.offer(MailServerPriority.NORMAL, task(MailServerPriority.NORMAL));
+
+    assertThat(queue.offer(MailServerPriority.NORMAL, task(MailServerPriority.NORMAL))).isFalse();
+    assertThat(queue.offer(MailServerPriority.LOW, task(MailServerPriority.LOW))).isFalse();
+    assertThat(queue.offer(MailServerPriority.HIGH, task(MailServerPriority.HIGH))).isTrue();
+    assertThat(displaced).hasSize(1);
+    assertThat(queue.size(MailServerPriority.NORMAL)).isZero();
+    assertThat(queue.size(MailServerPriority.HIGH)).isEqualTo(2);
+  }
+
+  @Test
+  void shouldReleaseCapacityOnClear() {
+    MailServerLaneQueue queue = queue(2);
+    queue.offer(MailServerPriority.HIGH, task(MailServerPriority.HIGH));
+    queue.offer(MailServerPriority.LOW, task(MailServerPriority.LOW));
+
+    assertThat(queue.clear()).isEqualTo(2);
+    assertThat(queue.size()).isZero();
+    assertThat(queue.remainingCapacity()).isEqualTo(2);
+    assertThat(queue.size(MailServerPriority.HIGH)).isZero();
+  }
+
+  static class Task implements Runnable {
+    final MailServerPriority priority;
+
+    Task(MailServerPriority priority) {
+      this.priority = priority;
+    }
+
+    @Override
+    public void run() {}
+  }
+}
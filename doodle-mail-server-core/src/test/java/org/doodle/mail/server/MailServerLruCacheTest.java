@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class MailServerLruCacheTest {
+  AtomicLong now = new AtomicLong(1000);
+
+  MailServerLruCache<String, String> cache(long maxWeight, long expireAfterWrite) {
+    return new MailServerLruCache<>(maxWeight, String::length, expireAfterWrite, now::get);
+  }
+
+  @Test
+  void shouldEvictLeastRecentlyUsedByWeight() {
+    MailServerLruCache<String, String> cache = cache(10, 0);
+    cache.put("a", "aaaa");
+    cache.put("b", "bbbb");
+    assertThat(cache.get("a")).isEqualTo("aaaa");
+
+    cache.put("c", "cccc");
+
+    assertThat(cache.get("b")).isNull();
+    assertThat(cache.get("a")).isEqualTo("aaaa");
+    assertThat(cache.get("c")).isEqualTo("cccc");
+    assertThat(cache.getWeight()).isEqualTo(8);
+    assertThat(cache.getEvictionCount()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldReweighReplacedValue() {
+    MailServerLruCache<String, String> cache = cache(10, 0);
+    cache.put("a", "aaaaaa");
+    cache.put("a", "aa");
+    cache.put("b", "bbbbbbbb");
+
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.getWeight()).isEqualTo(10);
+    assertThat(cache.getEvictionCount()).isZero();
+  }
+
+  @Test
+  void shouldDropValueHeavierThanMaxWeight() {
+    MailServerLruCache<String, String> cache = cache(4, 0);
+    cache.put("a", "aaaaa");
+
+    assertThat(cache.get("a")).isNull();
+    assertThat(cache.getWeight()).isZero();
+  }
+
+  @Test
+  void shouldExpireAfterWrite() {
+    MailServerLruCache<String, String> cache = cache(100, 50);
+    cache.put("a", "aaaa");
+
+    now.addAndGet(50);
+    assertThat(cache.get("a")).isEqualTo("aaaa");
+
+    now.addAndGet(1);
+    assertThat(cache.get("a")).isNull();
+    assertThat(cache.size()).isZero();
+    assertThat(cache.getWeight()).isZero();
+  }
+
+  @Test
+  void shouldReplaceExpiredValueOnPutIfAbsent() {
+    MailServerLruCache<String, String> cache = cache(100, 50);
+    assertThat(cache.putIfAbsent("a", "old")).isNull();
+    assertThat(cache.putIfAbsent("a", "new")).isEqualTo("old");
+
+    now.addAndGet(51);
+
+    assertThat(cache.putIfAbsent("a", "new")).isNull();
+    assertThat(cache.get("a")).isEqualTo("new");
+  }
+
+  @Test
+  void shouldCountHitsAndMisses() {
+    MailServerLruCache<String, String> cache = cache(100, 0);
+    cache.put("a", "aaaa");
+    cache.get("a");
+    cache.get("b");
+    cache.get("a");
+
+    assertThat(cache.getHitCount()).isEqualTo(2);
+    assertThat(cache.getMissCount()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldResetWeightOnInvalidateAll() {
+    MailServerLruCache<String, String> cache = cache(100, 0);
+    cache.put("a", "aaaa");
+    cache.put("b", "bbbb");
+    cache.invalidate("a");
+    assertThat(cache.getWeight()).isEqualTo(4);
+
+    cache.invalidateAll();
+
+    assertThat(cache.size()).isZero();
+    assertThat(cache.getWeight()).isZero();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.client.result.UpdateResult;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import org.doodle.design.mail.MailErrorCode;
+import org.doodle.design.mail.MailScheduleState;
+import org.doodle.design.mail.MailState;
+import org.doodle.design.mail.model.info.MailTargetInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import reactor.core.publisher.Mono;
+
+class MailServerPushServiceTest {
+  MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+  MailServerPushRepo pushRepo = mock(MailServerPushRepo.class);
+  MailServerPushScheduleRepo scheduleRepo = mock(MailServerPushScheduleRepo.class);
+  MailServerContentRepo contentRepo = mock(MailServerContentRepo.class);
+  MailServerDeliverService deliverService = mock(MailServerDeliverService.class);
+  MailServerProperties properties = new MailServerProperties();
+  MailServerContentService contentService =
+      new MailServerContentService(contentRepo, mock(ReactiveMongoTemplate.class), properties);
+  MailServerPushService pushService =
+      new MailServerPushService(
+          mongoTemplate, pushRepo, scheduleRepo, contentService, deliverService, properties);
+
+  @BeforeEach
+  void setUp() {
+    when(deliverService.deliver(any(), any(), anyList()))
+        .thenReturn(Mono.just(MailErrorCode.FAILURE));
+    when(mongoTemplate.updateFirst(
+            any(Query.class), any(UpdateDefinition.class), eq(MailServerPushScheduleEntity.class)))
+        .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+  }
+
+  @Test
+  void shouldPushBatchSharingCachedContent() {
+    MailServerContentEntity content =
+        MailServerContentEntity.builder().contentId("content").title("title").build();
+    contentService.getCache().put(content.getContentId(), content);
+    when(pushRepo.findAllById(anyList()))
+        .thenReturn(List.of(push("push-1", "role-1"), push("push-2", "role-2")));
+    when(scheduleRepo.findAllByPushIdIn(anyList()))
+        .thenReturn(List.of(schedule("push-1"), schedule("push-2")));
+
+    pushService.push(List.of("push-1", "push-2"));
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<MailServerContentEntity>> contents = ArgumentCaptor.forClass(List.class);
+    verify(deliverService).deliver(eq("role-1"), any(), contents.capture());
+    verify(deliverService).deliver(eq("role-2"), any(), contents.capture());
+    assertThat(contents.getAllValues())
+        .allSatisfy(list -> assertThat(list).containsExactly(content));
+    verify(contentRepo, never()).findAllById(any());
+    verify(mongoTemplate, times(2))
+        .updateFirst(
+            any(Query.class), any(UpdateDefinition.class), eq(MailServerPushScheduleEntity.class));
+  }
+
+  @Test
+  void shouldLoadSharedContentOnce() {
+    MailServerContentEntity content =
+        MailServerContentEntity.builder().contentId("content").title("title").build();
+    when(contentRepo.findAllById(List.of("content"))).thenReturn(List.of(content));
+    when(pushRepo.findAllById(anyList()))
+        .thenReturn(List.of(push("push-1", "role-1"), push("push-2", "role-1")));
+    when(scheduleRepo.findAllByPushIdIn(anyList()))
+        .thenReturn(List.of(schedule("push-1"), schedule("push-2")));
+
+    pushService.push(List.of("push-1", "push-2"));
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<MailServerContentEntity>> contents = ArgumentCaptor.forClass(List.class);
+    verify(deliverService).deliver(eq("role-1"), any(), contents.capture());
+    assertThat(contents.getValue()).containsExactly(content, content);
+    verify(contentRepo).findAllById(List.of("content"));
+  }
+
+  MailServerPushEntity push(String pushId, String roleId) {
+    MailTargetInfo targetInfo = mock(MailTargetInfo.class);
+    when(targetInfo.getRoleId()).thenReturn(roleId);
+    return MailServerPushEntity.builder()
+        .pushId(pushId)
+        .targetInfo(targetInfo)
+        .contentId("content")
+        .state(MailState.SCHEDULING)
+        .build();
+  }
+
+  MailServerPushScheduleEntity schedule(String pushId) {
+    return MailServerPushScheduleEntity.builder()
+        .scheduleId(pushId)
+        .pushId(pushId)
+        .state(MailScheduleState.SENDING)
+        .owner(properties.getPush().getNodeId())
+        .leaseExpireTime(Instant.now().plusSeconds(60).truncatedTo(ChronoUnit.MILLIS))
+        .build();
+  }
+}
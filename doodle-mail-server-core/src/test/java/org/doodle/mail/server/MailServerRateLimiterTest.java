@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MailServerRateLimiterTest {
+  static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  AtomicLong now = new AtomicLong(SECOND);
+  MailServerProperties properties = new MailServerProperties();
+  MailServerRateLimiter rateLimiter = new MailServerRateLimiter(properties, now::get);
+
+  @BeforeEach
+  void setUp() {
+    properties.getDeliver().setRateLimit(10);
+    properties.getDeliver().setRateBurst(2);
+    properties.getDeliver().setRateMaxWait(1000);
+    properties.getDeliver().setRateIdleTime(60 * 1000);
+  }
+
+  @Test
+  void shouldWaitAfterBurst() {
+    assertThat(rateLimiter.reserve("host")).isZero();
+    assertThat(rateLimiter.reserve("host")).isZero();
+    assertThat(rateLimiter.reserve("host")).isEqualTo(SECOND / 10);
+    assertThat(rateLimiter.reserve("host")).isEqualTo(2 * SECOND / 10);
+
+    now.addAndGet(SECOND);
+    assertThat(rateLimiter.reserve("host")).isZero();
+  }
+
+  @Test
+  void shouldRejectBeyondMaxWaitWithoutReserving() {
+    for (int i = 0; i < 12; i++) {
+      assertThat(rateLimiter.reserve("host")).isBetween(0L, SECOND);
+    }
+
+    assertThat(rateLimiter.reserve("host")).isEqualTo(-11 * SECOND / 10);
+    assertThat(rateLimiter.reserve("host")).isEqualTo(-11 * SECOND / 10);
+
+    now.addAndGet(SECOND / 10);
+    assertThat(rateLimiter.reserve("host")).isEqualTo(SECOND);
+  }
+
+  @Test
+  void shouldFailAcquireBeyondMaxWait() {
+    properties.getDeliver().setRateMaxWait(0);
+    rateLimiter.reserve("host");
+    rateLimiter.reserve("host");
+
+    assertThatThrownBy(() -> rateLimiter.acquire("host").block())
+        .isInstanceOf(MailServerThrottledException.class)
+        .extracting("retryAfter")
+        .isEqualTo(100L);
+    assertThat(rateLimiter.getThrottledCount()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldReserveOnSubscribe() {
+    rateLimiter.acquire("host");
+    rateLimiter.acquire("host");
+    rateLimiter.acquire("host");
+
+    assertThat(rateLimiter.getBucketSize()).isZero();
+    rateLimiter.acquire("host").block();
+    assertThat(rateLimiter.getBucketSize()).isEqualTo(1);
+    assertThat(rateLimiter.getThrottledCount()).isZero();
+  }
+
+  @Test
+  void shouldMatchRateLimitByTags() {
+    MailServerProperties.RateLimit rateLimit = new MailServerProperties.RateLimit();
+    rateLimit.setTags(Map.of("zone", "1"));
+    rateLimit.setRate(1);
+    rateLimit.setBurst(1);
+    properties.getDeliver().getRateLimits().add(rateLimit);
+
+    assertThat(rateLimiter.reserve(Map.of("zone", "1", "server", "1"))).isZero();
+    assertThat(rateLimiter.reserve(Map.of("zone", "1", "server", "1"))).isEqualTo(SECOND);
+    assertThat(rateLimiter.reserve(Map.of("zone", "2", "server", "1"))).isZero();
+    assertThat(rateLimiter.reserve(Map.of("zone", "2", "server", "1"))).isZero();
+  }
+
+  @Test
+  void shouldMatchRateLimitByHost() {
+    MailServerProperties.RateLimit rateLimit = new MailServerProperties.RateLimit();
+    rateLimit.setHost("game-1:8080");
+    rateLimit.setRate(1);
+    rateLimit.setBurst(1);
+    properties.getDeliver().getRateLimits().add(rateLimit);
+
+    assertThat(rateLimiter.reserve("game-1:8080")).isZero();
+    assertThat(rateLimiter.reserve("game-1:8080")).isEqualTo(SECOND);
+    assertThat(rateLimiter.reserve(Map.of("zone", "1"))).isZero();
+    assertThat(rateLimiter.reserve(Map.of("zone", "1"))).isZero();
+  }
+
+  @Test
+  void shouldNotLimitWithoutRate() {
+    properties.getDeliver().setRateLimit(0);
+    for (int i = 0; i < 100; i++) {
+      assertThat(rateLimiter.reserve("host")).isZero();
+    }
+  }
+
+  @Test
+  void shouldEvictIdleBuckets() {
+    rateLimiter.reserve("a");
+    rateLimiter.reserve("b");
+    rateLimiter.reserve("b");
+    rateLimiter.reserve("b");
+    assertThat(rateLimiter.getBucketSize()).isEqualTo(2);
+
+    now.addAndGet(60 * SECOND);
+    rateLimiter.reserve("b");
+
+    assertThat(rateLimiter.getBucketSize()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+class MailServerRoleServiceTest {
+  MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+  BulkOperations bulkOps = mock(BulkOperations.class);
+  MailServerProperties properties = new MailServerProperties();
+  ReactiveMongoTemplate reactiveMongoTemplate = mock(ReactiveMongoTemplate.class);
+  MailServerRoleService roleService =
+      new MailServerRoleService(mongoTemplate, reactiveMongoTemplate, properties);
+
+  @BeforeEach
+  void setUp() {
+    properties.getRole().setMaxDirtySize(2);
+    when(mongoTemplate.bulkOps(
+            any(BulkOperations.BulkMode.class), eq(MailServerRoleSyncEntity.class)))
+        .thenReturn(bulkOps);
+    when(reactiveMongoTemplate.find(any(Query.class), eq(MailServerRoleSyncEntity.class)))
+        .thenReturn(Flux.empty());
+  }
+
+  MailServerRoleSyncEntity role(String roleId, long syncId) {
+    return roleService.create(roleId, syncId);
+  }
+
+  @Test
+  void shouldFlushWhenNotRunning() {
+    roleService.save(role("role-1", 1));
+
+    verify(bulkOps).execute();
+    assertThat(roleService.getDirtySize()).isZero();
+  }
+
+  @Test
+  void shouldBoundBufferWhenFlushFails() {
+    when(bulkOps.execute()).thenThrow(new IllegalStateException("mongo down"));
+
+    roleService.save(role("role-1", 1));
+    roleService.save(role("role-2", 1));
+    roleService.save(role("role-3", 1));
+
+    verify(bulkOps, times(3)).execute();
+    assertThat(roleService.getDirtySize()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldKeepNewerProgressOfBufferedRole() {
+    when(bulkOps.execute()).thenThrow(new IllegalStateException("mongo down"));
+
+    roleService.save(role("role-1", 1));
+    roleService.save(role("role-2", 1));
+    roleService.save(role("role-1", 5));
+
+    assertThat(roleService.getDirtySize()).isEqualTo(2);
+    assertThat(roleService.findAllOrElseCreate(List.of("role-1")).block())
+        .extractingByKey("role-1")
+        .extracting(MailServerRoleSyncEntity::getSyncId)
+        .isEqualTo(5L);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+class MailServerSeqServiceTest {
+  MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+
+  MailServerSeqService seqService(long blockSize) {
+    return new MailServerSeqService(mongoTemplate, "test", blockSize, 0) {};
+  }
+
+  void reserve(long first, long second) {
+    when(mongoTemplate.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(MailServerSeqEntity.class)))
+        .thenReturn(
+            new MailServerSeqEntity("test", first), new MailServerSeqEntity("test", second));
+  }
+
+  @Test
+  void shouldServeBlockLocally() {
+    reserve(3, 6);
+    MailServerSeqService seqService = seqService(3);
+
+    for (long seq = 1; seq <= 4; seq++) {
+      assertThat(seqService.generateSeq()).isEqualTo(seq);
+    }
+    verify(mongoTemplate, times(2))
+        .findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(MailServerSeqEntity.class));
+  }
+
+  @Test
+  void shouldContinueAfterBlockReservedByOtherNode() {
+    reserve(3, 9);
+    MailServerSeqService seqService = seqService(3);
+
+    seqService.generateSeq();
+    seqService.generateSeq();
+    seqService.generateSeq();
+
+    assertThat(seqService.generateSeq()).isEqualTo(7);
+  }
+
+  @Test
+  void shouldIncrementOneByDefault() {
+    reserve(1, 2);
+    MailServerSeqService seqService = seqService(1);
+
+    assertThat(seqService.generateSeq()).isEqualTo(1);
+    assertThat(seqService.generateSeq()).isEqualTo(2);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class MailServerServletDeliverHandlerTest {
+  MailServerServletDeliverHandler.HostLimiter hostLimiter =
+      new MailServerServletDeliverHandler.HostLimiter(1);
+
+  @Test
+  void shouldQueueBeyondLimit() {
+    Sinks.One<String> first = Sinks.one();
+    AtomicBoolean second = new AtomicBoolean();
+    hostLimiter.limit(first.asMono()).subscribe();
+    hostLimiter.limit(Mono.fromRunnable(() -> second.set(true))).subscribe();
+
+    assertThat(hostLimiter.getActive()).isEqualTo(1);
+    assertThat(hostLimiter.getWaiting()).isEqualTo(1);
+    assertThat(second).isFalse();
+
+    first.tryEmitValue("done");
+
+    assertThat(second).isTrue();
+    assertThat(hostLimiter.getActive()).isZero();
+    assertThat(hostLimiter.getWaiting()).isZero();
+  }
+
+  @Test
+  void shouldNotAcquireUntilSubscribed() {
+    Mono<Object> limited = hostLimiter.limit(Mono.never());
+
+    assertThat(hostLimiter.getActive()).isZero();
+    Disposable disposable = limited.subscribe();
+    assertThat(hostLimiter.getActive()).isEqualTo(1);
+
+    disposable.dispose();
+    assertThat(hostLimiter.getActive()).isZero();
+  }
+
+  @Test
+  void shouldDropCancelledWaiter() {
+    Sinks.One<String> first = Sinks.one();
+    AtomicBoolean third = new AtomicBoolean();
+    hostLimiter.limit(first.asMono()).subscribe();
+    Disposable second = hostLimiter.limit(Mono.never()).subscribe();
+    hostLimiter.limit(Mono.fromRunnable(() -> third.set(true))).subscribe();
+
+    second.dispose();
+    assertThat(hostLimiter.getWaiting()).isEqualTo(1);
+
+    first.tryEmitValue("done");
+
+    assertThat(third).isTrue();
+    assertThat(hostLimiter.getActive()).isZero();
+  }
+
+  @Test
+  void shouldReleasePermitOnError() {
+    hostLimiter.limit(Mono.error(new IllegalStateException())).subscribe(v -> {}, e -> {});
+
+    assertThat(hostLimiter.getActive()).isZero();
+    assertThat(hostLimiter.limit(Mono.just("ok")).block()).isEqualTo("ok");
+  }
+}
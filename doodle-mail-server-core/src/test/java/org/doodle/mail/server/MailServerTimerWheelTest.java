@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2022-present Doodle. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.doodle.mail.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class MailServerTimerWheelTest {
+  static final long START = 1_000_000_000L;
+
+  MailServerTimerWheel wheel = new MailServerTimerWheel(1000, 60, 3, START);
+
+  @Test
+  void shouldFireOnFirstTickAtOrAfterDeadline() {
+    assertThat(wheel.schedule("a", START + 2500)).isTrue();
+
+    assertThat(wheel.advance(START + 2000)).isEmpty();
+    assertThat(wheel.advance(START + 2999)).isEmpty();
+    assertThat(wheel.advance(START + 3000)).containsExactly("a");
+    assertThat(wheel.size()).isZero();
+  }
+
+  @Test
+  void shouldFirePastDeadlineOnNextTick() {
+    assertThat(wheel.schedule("a", START - 5000)).isTrue();
+
+    assertThat(wheel.advance(START + 1000)).containsExactly("a");
+  }
+
+  @Test
+  void shouldCascadeFromHigherLevels() {
+    long deadline = START + 2 * 3600 * 1000 + 1500;
+    assertThat(wheel.schedule("a", deadline)).isTrue();
+
+    assertThat(wheel.advance(deadline - 1000)).isEmpty();
+    assertThat(wheel.advance(deadline + 500)).containsExactly("a");
+  }
+
+  @Test
+  void shouldRejectDeadlineBeyondSpan() {
+    assertThat(wheel.getSpan()).isEqualTo((60L * 60 * 60 - 1) * 1000);
+
+    assertThat(wheel.schedule("a", START + wheel.getSpan())).isTrue();
+    assertThat(wheel.schedule("b", START + wheel.getSpan() + 1000)).isFalse();
+    assertThat(wheel.size()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldNotFireCancelledTimer() {
+    wheel.schedule("a", START + 5000);
+    wheel.cancel("a");
+
+    assertThat(wheel.advance(START + 10_000)).isEmpty();
+    assertThat(wheel.size()).isZero();
+  }
+
+  @Test
+  void shouldFireRescheduledTimerOnlyAtNewDeadline() {
+    wheel.schedule("a", START + 5000);
+    wheel.schedule("a", START + 120_000);
+
+    assertThat(wheel.advance(START + 60_000)).isEmpty();
+    assertThat(wheel.advance(START + 120_000)).containsExactly("a");
+  }
+
+  @Test
+  void shouldNeverFireEarlyOrLate() {
+    Random random = new Random(1);
+    Map<String, Long> deadlines = new HashMap<>();
+    for (int i = 0; i < 10_000; i++) {
+      long deadline = START + (long) (random.nextDouble() * 100_000_000L);
+      if (wheel.schedule("id-" + i, deadline)) {
+        deadlines.put("id-" + i, deadline);
+      }
+    }
+
+    for (long now = START; now <= START + 110_000_000L; now += 1000) {
+      List<String> expired = wheel.advance(now);
+      for (String id : expired) {
+        long deadline = deadlines.remove(id);
+        assertThat(now).isGreaterThanOrEqualTo(deadline).isLessThan(deadline + 1000);
+      }
+    }
+    assertThat(deadlines).isEmpty();
+    assertThat(wheel.size()).isZero();
+  }
+}